@@ -8,6 +8,8 @@
 plugins {
     // Apply the application plugin to add support for building a CLI application in Java.
     application
+    // JMH benchmarks live in src/jmh/java and are run with gradle jmh
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 repositories {
@@ -61,6 +63,21 @@ tasks.named<JavaExec>("run") {
     standardInput = System.`in`
 }
 
+jmh {
+    // https://mvnrepository.com/artifact/org.openjdk.jmh/jmh-core
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(2)
+    iterations.set(5)
+    // 5M bar histories need a larger heap than the default
+    jvmArgs.set(listOf("-Xmx8g"))
+    resultFormat.set("JSON")
+    // restrict to a subset with gradle jmh -PjmhIncludes=ArrayUtilsBenchmark
+    if (project.hasProperty("jmhIncludes")) {
+        includes.set(listOf(project.property("jmhIncludes").toString()))
+    }
+}
+
 tasks.named<Test>("test") {
     // Use JUnit Platform for unit tests.
     useJUnitPlatform()
@@ -0,0 +1,64 @@
+package ibhist;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the ArrayUtils kernels over random walk highs, lows and volumes.
+ * gradle jmh -PjmhIncludes=ArrayUtilsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ArrayUtilsBenchmark {
+
+    @Param({"10000", "100000", "1000000", "5000000"})
+    int bars;
+
+    @Param({"15"})
+    int window;
+
+    double[] highs;
+    double[] lows;
+    double[] volumes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        var history = RandomWalk.generate("esh6", bars, 42L);
+        highs = history.getColumn("high");
+        lows = history.getColumn("low");
+        volumes = history.getColumn("volume");
+    }
+
+    @Benchmark
+    public int[] localMax() {
+        return ArrayUtils.localMax(highs, 0, 0, window);
+    }
+
+    @Benchmark
+    public int[] localMin() {
+        return ArrayUtils.localMin(lows, 0, 0, window);
+    }
+
+    @Benchmark
+    public double[] rollingStandardize() {
+        return ArrayUtils.rollingStandardize(volumes, 0, 0, 20);
+    }
+
+    @Benchmark
+    public int[] countPriorHigh() {
+        return ArrayUtils.countPrior(highs, 0, 0, (a, b) -> a > b);
+    }
+
+    @Benchmark
+    public int[] countPriorLow() {
+        return ArrayUtils.countPrior(lows, 0, 0, (a, b) -> a < b);
+    }
+
+    @Benchmark
+    public List<ArrayUtils.Swing> findSwings() {
+        return ArrayUtils.findSwings(highs, lows, 0, 0, window);
+    }
+}
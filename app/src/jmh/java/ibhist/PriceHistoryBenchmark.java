@@ -0,0 +1,74 @@
+package ibhist;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the PriceHistory indicator columns over random walk histories.
+ * gradle jmh -PjmhIncludes=PriceHistoryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PriceHistoryBenchmark {
+
+    @Param({"10000", "100000", "1000000", "5000000"})
+    int bars;
+
+    PriceHistory history;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        history = RandomWalk.generate("esh6", bars, 42L);
+        // aggregrate used by minVolBars requires a vwap column
+        history.vwap("vwap");
+        history.index();
+    }
+
+    @Benchmark
+    public double[] vwap() {
+        return history.vwap("vwap").values;
+    }
+
+    @Benchmark
+    public double[] ema() {
+        return history.ema("close", "ema", 87).values;
+    }
+
+    @Benchmark
+    public double[] rollingMax() {
+        return history.rollingMax("high", 5, "rollhi").values;
+    }
+
+    @Benchmark
+    public double[] rollingMin() {
+        return history.rollingMin("low", 5, "rolllo").values;
+    }
+
+    @Benchmark
+    public double[] hilo() {
+        return history.hilo("high", "hc").values;
+    }
+
+    @Benchmark
+    public double[] strat() {
+        return history.strat("strat").values;
+    }
+
+    @Benchmark
+    public double[] rollingStandardize() {
+        return history.rolling_standardize("volume", 30, "volstd").values;
+    }
+
+    @Benchmark
+    public List<PriceHistory.Bar> minVolBars() {
+        return history.minVolBars(2500);
+    }
+
+    @Benchmark
+    public PriceHistory.Index index() {
+        return history.new Index();
+    }
+}
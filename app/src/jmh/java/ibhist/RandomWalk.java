@@ -0,0 +1,38 @@
+package ibhist;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic one-minute futures histories for benchmarks.
+ * Prices follow a random walk in 0.25 ticks. Sessions are 1380 bars starting at 23:00
+ * followed by a 60 minute gap so the PriceHistory.Index finds one entry per trade date.
+ */
+public class RandomWalk {
+    public static final int SESSION_BARS = 1380;
+    public static final double TICK_SIZE = 0.25;
+
+    public static PriceHistory generate(String symbol, int bars, long seed) {
+        var rnd = new SplittableRandom(seed);
+        var history = new PriceHistory(symbol, bars, "date", "open", "high", "low", "close", "volume");
+        LocalDateTime sessionStart = LocalDate.of(2010, 1, 3).atTime(23, 0);
+        int barInSession = 0;
+        double close = 5000;
+        for (int i = 0; i < bars; i++) {
+            if (barInSession == SESSION_BARS) {
+                sessionStart = sessionStart.plusDays(1);
+                barInSession = 0;
+            }
+            double open = close;
+            close = Math.max(TICK_SIZE, open + TICK_SIZE * Math.round(rnd.nextGaussian() * 3));
+            double high = Math.max(open, close) + TICK_SIZE * rnd.nextInt(4);
+            double low = Math.max(TICK_SIZE, Math.min(open, close) - TICK_SIZE * rnd.nextInt(4));
+            // skewed volume with occasional spikes
+            double volume = Math.floor(200 + 2000 * Math.exp(rnd.nextGaussian()));
+            history.add(sessionStart.plusMinutes(barInSession), open, high, low, close, volume);
+            ++barInSession;
+        }
+        return history;
+    }
+}
@@ -1,6 +1,7 @@
 package ibhist;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Singleton;
 
 public class AppModule extends AbstractModule {
 
@@ -8,7 +9,12 @@ public class AppModule extends AbstractModule {
     protected void configure() {
         bind(IBConnector.class).to(IBConnectorImpl.class);
         bind(ContractFactory.class).to(ContractFactoryImpl.class);
-        bind(TimeSeriesRepository.class).to(TimeSeriesRepositoryImpl.class);
+        if (LocalTimeSeriesRepository.isSelected()) {
+            // file backed store for running without mongodb, -Dibhist.store=local
+            bind(TimeSeriesRepository.class).to(LocalTimeSeriesRepository.class).in(Singleton.class);
+        } else {
+            bind(TimeSeriesRepository.class).to(TimeSeriesRepositoryImpl.class);
+        }
         bind(PriceHistoryRepository.class).to(PriceHistoryRepositoryImpl.class);
         bind(Repl.class).to(ReplImpl.class);
     }
@@ -12,6 +12,19 @@ public class ArrayUtils {
      * Negative end values are treated as counting from the end = 0 is values.length
      */
     public static int[] localMax(double[] values, int start, int end, int windowSize) {
+        return localExtrema(values, start, end, windowSize, true);
+    }
+
+    /**
+     * returns the indexes of local minima in a sliding window of size 2n + 1
+     * An index i is in the list if values[i] <= all items in window
+     * Negative end values are treated as counting from the end = 0 is values.length
+     */
+    public static int[] localMin(double[] values, int start, int end, int windowSize) {
+        return localExtrema(values, start, end, windowSize, false);
+    }
+
+    private static int[] localExtrema(double[] values, int start, int end, int windowSize, boolean isMax) {
         if (end <= 0) {
             end += values.length;
         }
@@ -25,24 +38,10 @@ public class ArrayUtils {
 
         int[] results = new int[end - start];
         int n = 0;
+        var window = new WindowExtremum(values, start, end, windowSize, isMax);
 
         for (int i = start; i < end; i++) {
-            // Define window bounds
-            int windowStart = Math.max(0, i - windowSize);
-            int windowEnd = Math.min(values.length - 1, i + windowSize);
-
-            boolean isLocalMax = true;
-            double currentValue = values[i];
-
-            // Check if current value is >= all values in window
-            for (int j = windowStart; j <= windowEnd; j++) {
-                if (values[j] > currentValue) {
-                    isLocalMax = false;
-                    break;
-                }
-            }
-
-            if (isLocalMax) {
+            if (window.isExtremum(i)) {
                 results[n++] = i;
             }
         }
@@ -52,48 +51,47 @@ public class ArrayUtils {
     }
 
     /**
-     * returns the indexes of local minima in a sliding window of size 2n + 1
-     * An index i is in the list if values[i] <= all items in window
-     * Negative end values are treated as counting from the end = 0 is values.length
+     * Sliding max or min over the centered window [i - n, i + n] clamped to the bounds of values.
+     * Uses a monotonic deque of indexes (as PriceHistory.rollingImpl) so stepping i forward is amortized O(1).
+     * isExtremum must be called with increasing i.
      */
-    public static int[] localMin(double[] values, int start, int end, int windowSize) {
-        if (end <= 0) {
-            end += values.length;
+    static final class WindowExtremum {
+        private final double[] values;
+        private final int windowSize;
+        private final double sign;  // 1 for max, -1 for min so sign * x is compared as a max
+        private final int[] dq;     // indexes with sign * values decreasing from head
+        private int head = 0;       // head always points to current max/min in window
+        private int tail = 0;       // insertion point
+        private int next;           // next index to enter the window
+
+        WindowExtremum(double[] values, int start, int end, int windowSize, boolean isMax) {
+            this.values = values;
+            this.windowSize = windowSize;
+            this.sign = isMax ? 1 : -1;
+            next = Math.max(0, start - windowSize);
+            int last = Math.min(values.length - 1, end - 1 + windowSize);
+            dq = new int[Math.max(0, last - next + 1)];
         }
 
-        start = Math.max(0, start - 1);
-        end = Math.min(values.length, end);
-
-        if (start >= end) {
-            return new int[0];
-        }
-
-        int[] results = new int[end - start];
-        int n = 0;
-
-        for (int i = start; i < end; i++) {
-            // Define window bounds
-            int windowStart = Math.max(0, i - windowSize);
-            int windowEnd = Math.min(values.length - 1, i + windowSize);
-
-            boolean isLocalMin = true;
-            double currentValue = values[i];
-
-            // Check if current value is <= all values in window
-            for (int j = windowStart; j <= windowEnd; j++) {
-                if (values[j] < currentValue) {
-                    isLocalMin = false;
-                    break;
+        /**
+         * @return true if values[i] >= (max) or <= (min) all values in the window centered on i
+         */
+        boolean isExtremum(int i) {
+            int right = Math.min(values.length - 1, i + windowSize);
+            while (next <= right) {
+                double x = sign * values[next];
+                // remove items from back of q which can never be the max/min. equal values are redundant
+                while (tail > head && x >= sign * values[dq[tail - 1]]) {
+                    --tail;
                 }
+                dq[tail++] = next++;
             }
-
-            if (isLocalMin) {
-                results[n++] = i;
+            int left = i - windowSize;
+            while (dq[head] < left) {
+                ++head;
             }
+            return sign * values[i] >= sign * values[dq[head]];
         }
-
-        // Return only the filled portion of the array
-        return Arrays.copyOf(results, n);
     }
 
     /**
@@ -153,25 +151,67 @@ public class ArrayUtils {
         end = Math.min(values.length, end);
 
         var results = new double[end - start];
-        var mean = rollingMean(values, start, end, n);
+        rollingZScore(values, start, end, n, 1, results, 0);
 
-        for (int i = n - 1; i < end - start; i++) {
-            int windowStart = start + i - n + 1;
+        // multiply by 100, and round
+        for (int i = n - 1; i < results.length; i++) {
+            results[i] = Math.round(results[i] * 100.0);
+        }
 
-            // Calculate standard deviation
-            double variance = 0;
-            for (int j = windowStart; j <= start + i; j++) {
-                double diff = values[j] - mean[i];
-                variance += diff * diff;
-            }
-            double stdDev = Math.sqrt(variance / (n - 1));
+        return results;
+    }
 
-            // Standardize, multiply by 100, and round
-            double standardized = stdDev == 0 ? 0 : (values[start + i] - mean[i]) / stdDev;
-            results[i] = Math.round(standardized * 100.0);
+    /**
+     * number of bars between exact recalculations of the window mean and variance in rollingZScore.
+     * bounds the rounding error accumulated by the sliding updates.
+     */
+    static final int REANCHOR_INTERVAL = 1024;
+
+    /**
+     * streaming z-score over a trailing window of size n. For each i in [from + n - 1, to)
+     * out[outStart + i - from] = (values[i] - mean) / std of the window ending at i, or 0 if the window is constant.
+     * The mean and sum of squared deviations are slid using Welford updates and re-anchored with an exact
+     * two pass calculation every REANCHOR_INTERVAL bars. O(to - from) time and no allocation.
+     *
+     * @param ddof - delta degrees of freedom. 1 for sample std (pandas), 0 for population std (numpy)
+     * @param out  - entries before the first full window are not written
+     */
+    public static void rollingZScore(double[] values, int from, int to, int n, int ddof, double[] out, int outStart) {
+        if (n <= ddof || to - from < n) {
+            return;
         }
+        double mean = 0;
+        double m2 = 0;
+        int untilAnchor = 0;
+
+        for (int i = from + n - 1; i < to; i++) {
+            double x = values[i];
+            if (untilAnchor == 0) {
+                int windowStart = i - n + 1;
+                double sum = 0;
+                for (int j = windowStart; j <= i; j++) {
+                    sum += values[j];
+                }
+                mean = sum / n;
+                m2 = 0;
+                for (int j = windowStart; j <= i; j++) {
+                    double diff = values[j] - mean;
+                    m2 += diff * diff;
+                }
+                untilAnchor = Math.max(REANCHOR_INTERVAL, n);
+            } else {
+                // replace values[i - n] by x in the window
+                double old = values[i - n];
+                double prevMean = mean;
+                mean += (x - old) / n;
+                m2 = Math.max(0, m2 + (x - old) * (x - mean + old - prevMean));
+            }
+            --untilAnchor;
 
-        return results;
+            double variance = m2 / (n - ddof);
+            // treat variance lost in rounding noise as a constant window
+            out[outStart + i - from] = variance > 1e-14 * mean * mean ? (x - mean) / Math.sqrt(variance) : 0;
+        }
     }
 
     /**
@@ -219,26 +259,34 @@ public class ArrayUtils {
         return result;
     }
 
+    /**
+     * returns local highs and lows in index order. A high is placed before a low at the same index.
+     * Highs and lows are found in the same pass so no sort is needed.
+     */
     public static List<Swing> findSwings(double[] highs, double[] lows, int start, int end, int windowSize) {
-        var hs = localMax(highs, start, end, windowSize);
-        var ls = localMin(lows, start, end, windowSize);
-        // Pre-allocate ArrayList with known capacity to avoid resizing
-        List<Swing> swings = new ArrayList<>(hs.length + ls.length);
-
-        // Add local highs
-        for (int i = 0; i < hs.length; i++) {
-            int index = hs[i];
-            swings.add(new Swing(index, highs[index], PointType.LOCAL_HIGH));
+        if (end <= 0) {
+            end += highs.length;
         }
 
-        // Add local lows
-        for (int i = 0; i < ls.length; i++) {
-            int index = ls[i];
-            swings.add(new Swing(index, lows[index], PointType.LOCAL_LOW));
+        start = Math.max(0, start - 1);
+        end = Math.min(Math.min(highs.length, lows.length), end);
+
+        if (start >= end) {
+            return new ArrayList<>();
         }
 
-        // Sort by index to maintain chronological order
-        swings.sort((s1, s2) -> Integer.compare(s1.index(), s2.index()));
+        var highWindow = new WindowExtremum(highs, start, end, windowSize, true);
+        var lowWindow = new WindowExtremum(lows, start, end, windowSize, false);
+        List<Swing> swings = new ArrayList<>();
+
+        for (int i = start; i < end; i++) {
+            if (highWindow.isExtremum(i)) {
+                swings.add(new Swing(i, highs[i], PointType.LOCAL_HIGH));
+            }
+            if (lowWindow.isExtremum(i)) {
+                swings.add(new Swing(i, lows[i], PointType.LOCAL_LOW));
+            }
+        }
 
         return swings;
     }
@@ -0,0 +1,57 @@
+package ibhist;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Layouts and helpers shared by the little endian binary formats of ColumnStore and CsvSnapshot.
+ */
+final class BinaryFiles {
+    static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private BinaryFiles() {
+    }
+
+    /**
+     * fill a mapped temp file of size bytes next to file and move it into place so a reader in another process
+     * never sees a partial file. The temp file is deleted if writing or the move fails
+     */
+    static void writeAtomically(Path file, long size, Consumer<MemorySegment> writer) throws IOException {
+        var tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (var channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 var arena = Arena.ofConfined()) {
+                var segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+                writer.accept(segment);
+                segment.force();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException with the message and file if not valid, e.g. a count does not fit the file size
+     */
+    static void check(boolean valid, String message, Path file) {
+        if (!valid) {
+            throw new IllegalArgumentException(message + " " + file);
+        }
+    }
+
+    static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+}
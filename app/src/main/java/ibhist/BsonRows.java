@@ -0,0 +1,145 @@
+package ibhist;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonWriter;
+import org.bson.RawBsonDocument;
+import org.bson.io.BasicOutputBuffer;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes m1, min_vol and daily rows straight to BSON from primitive values. Rows are written back to back
+ * into one buffer and drained as RawBsonDocument views over a single byte array, so a batch costs one copy
+ * rather than a Document map, boxed doubles and Dates per row. Field names and types are the same as the
+ * Document rows previously written so stored documents are unchanged.
+ */
+final class BsonRows {
+    private static final long MINUTE_MILLIS = 60_000L;
+    private static final long DAY_MILLIS = 86_400_000L;
+    private final BasicOutputBuffer buffer;
+    private int[] offsets; // start of each row, offsets[size] is the end of the last row
+    private int size = 0;
+
+    BsonRows(int capacity) {
+        buffer = new BasicOutputBuffer(Math.max(capacity, 1) * 192);
+        offsets = new int[Math.max(capacity, 1) + 1];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * m1 row, the symbol and timestamp key is omitted when the row is used as the $set of an upsert
+     */
+    void m1(String symbol, long epochMinute, LocalDate tradeDate, int barNumber, double open, double high, double low,
+            double close, double volume, double ema, double vwap, boolean withKey) {
+        var w = start();
+        m1(w, symbol, epochMinute, tradeDate, barNumber, open, high, low, close, volume, ema, vwap, withKey);
+        end(w);
+    }
+
+    /**
+     * write the fields of an m1 row to a document already started on w
+     */
+    static void m1(BsonWriter w, String symbol, long epochMinute, LocalDate tradeDate, int barNumber, double open,
+                   double high, double low, double close, double volume, double ema, double vwap, boolean withKey) {
+        if (withKey) {
+            w.writeString("symbol", symbol);
+            w.writeDateTime("timestamp", epochMinute * MINUTE_MILLIS);
+        }
+        w.writeDateTime("trade_date", tradeDate.toEpochDay() * DAY_MILLIS);
+        w.writeInt32("bar_number", barNumber);
+        w.writeDouble("open", open);
+        w.writeDouble("high", high);
+        w.writeDouble("low", low);
+        w.writeDouble("close", close);
+        w.writeDouble("volume", volume);
+        w.writeDouble("ema", roundDouble(ema));
+        w.writeDouble("vwap", roundDouble(vwap));
+    }
+
+    void minVol(String symbol, PriceHistory.Bar b) {
+        var w = start();
+        w.writeString("symbol", symbol);
+        w.writeDateTime("start_tm", millis(b.start()));
+        w.writeDateTime("end_tm", millis(b.end()));
+        w.writeDouble("open", b.open());
+        w.writeDouble("high", b.high());
+        w.writeDouble("low", b.low());
+        w.writeDouble("close", b.close());
+        w.writeDouble("volume", b.volume());
+        w.writeDouble("vwap", roundDouble(b.vwap()));
+        w.writeDouble("ema", roundDouble(b.ema()));
+        end(w);
+    }
+
+    void daily(String symbol, TimeSeriesRepository.DailyBar bar) {
+        var w = start();
+        w.writeString("symbol", symbol);
+        w.writeDateTime("date", bar.date().toEpochDay() * DAY_MILLIS);
+        w.writeDouble("open", bar.open());
+        w.writeDouble("high", bar.high());
+        w.writeDouble("low", bar.low());
+        w.writeDouble("close", bar.close());
+        w.writeInt32("volume", bar.volume());
+        w.writeDouble("vwap", roundDouble(bar.vwap()));
+        end(w);
+    }
+
+    /**
+     * return the rows written since the last drain and reset the buffer for the next batch
+     */
+    List<RawBsonDocument> drain() {
+        var bytes = buffer.toByteArray();
+        var rows = new ArrayList<RawBsonDocument>(size);
+        for (int i = 0; i < size; i++) {
+            rows.add(new RawBsonDocument(bytes, offsets[i], offsets[i + 1] - offsets[i]));
+        }
+        buffer.truncateToPosition(0);
+        size = 0;
+        return rows;
+    }
+
+    private BsonBinaryWriter start() {
+        if (size + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[size] = buffer.getPosition();
+        var w = new BsonBinaryWriter(buffer);
+        w.writeStartDocument();
+        return w;
+    }
+
+    private void end(BsonBinaryWriter w) {
+        w.writeEndDocument();
+        offsets[++size] = buffer.getPosition();
+    }
+
+    private static long millis(LocalDateTime dt) {
+        return dt.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * round half up to 3 decimal places. Gives the same result as BigDecimal.valueOf(value).setScale(3, HALF_UP)
+     * for prices; the few ulp bias is needed because scaling a decimal such as 1.0005 gives 1000.4999999999999.
+     * Values too large to scale exactly, infinities and NaN are returned unchanged.
+     */
+    static double roundDouble(double value) {
+        double scaled = Math.abs(value) * 1000;
+        if (!(scaled < 0x1p52)) {
+            return value;
+        }
+        double rounded = Math.floor(scaled + 0.5 + 4 * Math.ulp(scaled));
+        return rounded == 0 ? 0d : Math.copySign(rounded / 1000, value);
+    }
+}
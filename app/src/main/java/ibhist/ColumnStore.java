@@ -0,0 +1,142 @@
+package ibhist;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ibhist.BinaryFiles.*;
+
+/**
+ * Binary columnar file for a PriceHistory, one file per symbol. The file is a header followed by a block of
+ * little endian values for each column, the epoch minute times first then the double columns in ordinal order.
+ * <pre>
+ * int magic, int version, int rows, int columns, int flags (1 = has times)
+ * symbol and column names as int length + utf-8 bytes, padded to 8 bytes
+ * long[rows] times, double[rows] for each column
+ * </pre>
+ * Loading is a bulk copy of each block into the column arrays with no parsing or per value conversion. Files
+ * are written to a temp file and moved into place so a reader in another process never sees a partial file.
+ * A file whose counts or lengths do not fit its size is rejected with IllegalArgumentException.
+ */
+public class ColumnStore {
+    private static final Logger log = LogManager.getLogger(ColumnStore.class.getSimpleName());
+    static final String EXTENSION = ".col";
+    static final int MAGIC = 0x43484249; // IBHC
+    static final int VERSION = 1;
+    static final int HAS_TIMES = 1;
+
+    public static Path path(Path dir, String symbol) {
+        return dir.resolve(symbol.toLowerCase() + EXTENSION);
+    }
+
+    /**
+     * save all rows and columns, including calculated columns, replacing any existing file
+     */
+    public static Path save(PriceHistory history, Path file) {
+        var columns = history.columns();
+        int rows = history.length();
+        boolean hasTimes = history.getTimes() != null;
+        var names = new ArrayList<String>(columns.size() + 1);
+        names.add(history.getSymbol());
+        for (var c : columns) {
+            names.add(c.name);
+        }
+        long dataOffset = align(20 + names.stream().mapToLong(s -> 4 + s.getBytes(StandardCharsets.UTF_8).length).sum());
+        long blockSize = (long) rows * Double.BYTES;
+        long fileSize = dataOffset + blockSize * (columns.size() + (hasTimes ? 1 : 0));
+
+        try {
+            writeAtomically(file, fileSize, segment -> {
+                segment.set(INT, 0, MAGIC);
+                segment.set(INT, 4, VERSION);
+                segment.set(INT, 8, rows);
+                segment.set(INT, 12, columns.size());
+                segment.set(INT, 16, hasTimes ? HAS_TIMES : 0);
+                long offset = 20;
+                for (var name : names) {
+                    var bytes = name.getBytes(StandardCharsets.UTF_8);
+                    segment.set(INT, offset, bytes.length);
+                    MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, offset + 4, bytes.length);
+                    offset += 4 + bytes.length;
+                }
+                offset = dataOffset;
+                if (hasTimes) {
+                    MemorySegment.copy(history.getTimes(), 0, segment, LONG, offset, rows);
+                    offset += blockSize;
+                }
+                for (var c : columns) {
+                    MemorySegment.copy(c.values, 0, segment, DOUBLE, offset, rows);
+                    offset += blockSize;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("saved {} rows {} columns to {}", rows, columns.size(), file);
+        return file;
+    }
+
+    /**
+     * load a history saved by save. extra is the number of empty rows to allocate for bars added later
+     */
+    public static PriceHistory load(Path file, int extra) {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ);
+             var arena = Arena.ofConfined()) {
+            var segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            if (segment.byteSize() < 20 || segment.get(INT, 0) != MAGIC) {
+                throw new IllegalArgumentException("not a column file " + file);
+            }
+            if (segment.get(INT, 4) != VERSION) {
+                throw new IllegalArgumentException("unsupported version " + segment.get(INT, 4) + " " + file);
+            }
+            int rows = segment.get(INT, 8);
+            int columnCount = segment.get(INT, 12);
+            boolean hasTimes = (segment.get(INT, 16) & HAS_TIMES) != 0;
+            check(rows >= 0 && columnCount >= 0, "invalid counts", file);
+            long offset = 20;
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i <= columnCount; i++) {
+                check(offset + 4 <= segment.byteSize(), "truncated", file);
+                int len = segment.get(INT, offset);
+                check(len >= 0 && offset + 4 + len <= segment.byteSize(), "invalid name", file);
+                var bytes = new byte[len];
+                MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset + 4, bytes, 0, len);
+                names.add(new String(bytes, StandardCharsets.UTF_8));
+                offset += 4 + len;
+            }
+            String symbol = names.removeFirst();
+            if (hasTimes) {
+                names.addFirst("date");
+            }
+
+            offset = align(offset);
+            long blockSize = (long) rows * Double.BYTES;
+            check(offset + blockSize * names.size() <= segment.byteSize(), "truncated", file);
+
+            var history = new PriceHistory(symbol, Math.max(rows + extra, 1), names.toArray(String[]::new));
+            if (hasTimes) {
+                MemorySegment.copy(segment, LONG, offset, history.getTimes(), 0, rows);
+                offset += blockSize;
+            }
+            for (var c : history.columns()) {
+                MemorySegment.copy(segment, DOUBLE, offset, c.values, 0, rows);
+                offset += blockSize;
+            }
+            history.setLength(rows);
+            return history;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
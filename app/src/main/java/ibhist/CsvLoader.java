@@ -0,0 +1,323 @@
+package ibhist;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Loads the csv files written by HistoricalDataAction.barsAsCsv into a PriceHistory with the columns
+ * date, open, high, low, close, volume.
+ * <pre>
+ * ,Date,Open,High,Low,Close,Volume,WAP,BarCount
+ * 0,20250618 23:00:00,6049.50,6050.25,6049.25,6050.00,1234,6049.812,321
+ * </pre>
+ * The files of a contract are parsed concurrently on the common fork-join pool, each straight from its bytes
+ * into primitive columns, and then merged by time. The chunks requested for a contract overlap so a minute
+ * found in several files is taken from the last file in the list, which for files named by start date is
+ * the most recent download.
+ */
+public class CsvLoader {
+    private static final Logger log = LogManager.getLogger(CsvLoader.class.getSimpleName());
+    static final String[] COLUMNS = {"date", "open", "high", "low", "close", "volume"};
+    private static final double[] POW10 = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    /**
+     * load and merge the files, later files replace bars of earlier files with the same time
+     */
+    public static PriceHistory load(String symbol, List<Path> files) {
+        long t = System.nanoTime();
+        var chunks = files.parallelStream().map(f -> parse(symbol, f)).toList();
+        var history = merge(symbol, chunks);
+        log.info("loaded {} bars for {} from {} files in {} ms", history.length(), symbol, files.size(),
+                (System.nanoTime() - t) / 1_000_000);
+        return history;
+    }
+
+    /**
+     * parse a single csv file, rows are expected in time order
+     */
+    public static PriceHistory parse(String symbol, Path file) {
+        try {
+            return parse(symbol, Files.readAllBytes(file), file.getFileName().toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static PriceHistory parse(String symbol, byte[] bytes, String source) {
+        // about 60 bytes per row, the history grows if the estimate is short
+        var history = new PriceHistory(symbol, bytes.length / 48 + 1, COLUMNS);
+        long[] times = history.getTimes();
+        double[][] values = values(history);
+        var parser = new Parser(bytes, source);
+        int dateField = parser.header();
+        int n = 0;
+        while (parser.hasLine()) {
+            if (n == times.length) {
+                history.ensureCapacity(n * 2);
+                times = history.getTimes();
+                values = values(history);
+            }
+            for (int i = 0; i < dateField; i++) {
+                parser.skipField();
+            }
+            times[n] = parser.time();
+            for (double[] column : values) {
+                column[n] = parser.number();
+            }
+            parser.nextLine();
+            n++;
+        }
+        history.setLength(n);
+        return history;
+    }
+
+    private static double[][] values(PriceHistory history) {
+        return history.columns().stream().map(c -> c.values).toArray(double[][]::new);
+    }
+
+    /**
+     * k-way merge of chunks in time order. When chunks have the same time the one later in the list is taken and
+     * the others skipped. Runs of bars from one chunk are copied in bulk.
+     */
+    static PriceHistory merge(String symbol, List<PriceHistory> chunks) {
+        int rows = chunks.stream().mapToInt(PriceHistory::length).sum();
+        var merged = new PriceHistory(symbol, rows + PriceHistory.DAY_BARS, COLUMNS);
+        var heap = new PriorityQueue<Cursor>(Comparator.comparingLong(Cursor::time).thenComparing(Cursor::order, Comparator.reverseOrder()));
+        for (int i = 0; i < chunks.size(); i++) {
+            if (chunks.get(i).length() > 0) {
+                heap.add(new Cursor(chunks.get(i), i));
+            }
+        }
+        while (!heap.isEmpty()) {
+            var c = heap.poll();
+            long limit = heap.isEmpty() ? Long.MAX_VALUE : heap.peek().time();
+            long[] times = c.history.getTimes();
+            int n = c.history.length();
+            int end = c.pos;
+            while (end < n && times[end] < limit) {
+                end++;
+            }
+            if (end < n && times[end] == limit && c.order > heap.peek().order) {
+                end++; // c wins the tie as it comes later in the list
+            }
+            PriceHistoryCache.copyRows(c.history, c.pos, end, merged);
+            long last = times[end - 1];
+            c.pos = end;
+            if (end < n) {
+                heap.add(c);
+            }
+            while (!heap.isEmpty() && heap.peek().time() <= last) {
+                var d = heap.poll();
+                while (d.pos < d.history.length() && d.history.getTimes()[d.pos] <= last) {
+                    d.pos++;
+                }
+                if (d.pos < d.history.length()) {
+                    heap.add(d);
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static final class Cursor {
+        final PriceHistory history;
+        final int order;
+        int pos = 0;
+
+        Cursor(PriceHistory history, int order) {
+            this.history = history;
+            this.order = order;
+        }
+
+        long time() {
+            return history.getTimes()[pos];
+        }
+
+        int order() {
+            return order;
+        }
+    }
+
+    /**
+     * forward only reader over the bytes of a csv file
+     */
+    private static final class Parser {
+        private final byte[] b;
+        private final String source;
+        private int pos = 0;
+        private int line = 1;
+
+        Parser(byte[] b, String source) {
+            this.b = b;
+            this.source = source;
+        }
+
+        /**
+         * skip the header if present and return the position of the Date field
+         */
+        int header() {
+            if (pos < b.length && !isDigit(b[pos])) {
+                int field = 0;
+                int start = pos;
+                int dateField = -1;
+                while (pos < b.length && b[pos] != '\n') {
+                    if (b[pos] == ',') {
+                        if (isDate(start, pos)) {
+                            dateField = field;
+                        }
+                        field++;
+                        start = pos + 1;
+                    }
+                    pos++;
+                }
+                nextLine();
+                if (dateField < 0) {
+                    throw error("no Date column in header");
+                }
+                return dateField;
+            }
+            // no header, the date is the field containing a space
+            int field = 0;
+            for (int i = pos; i < b.length && b[i] != '\n' && b[i] != ' '; i++) {
+                if (b[i] == ',') {
+                    field++;
+                }
+            }
+            return field;
+        }
+
+        private boolean isDate(int start, int end) {
+            return end - start == 4 && (b[start] | 0x20) == 'd' && (b[start + 1] | 0x20) == 'a'
+                    && (b[start + 2] | 0x20) == 't' && (b[start + 3] | 0x20) == 'e';
+        }
+
+        boolean hasLine() {
+            while (pos < b.length && (b[pos] == '\n' || b[pos] == '\r')) {
+                if (b[pos] == '\n') {
+                    line++;
+                }
+                pos++;
+            }
+            return pos < b.length;
+        }
+
+        void nextLine() {
+            while (pos < b.length && b[pos] != '\n') {
+                pos++;
+            }
+        }
+
+        void skipField() {
+            while (pos < b.length && b[pos] != ',') {
+                if (b[pos] == '\n') {
+                    throw error("missing fields");
+                }
+                pos++;
+            }
+            pos++;
+        }
+
+        /**
+         * yyyyMMdd HH:mm[:ss], seconds and anything after them are ignored
+         */
+        long time() {
+            int year = digits(4);
+            int month = digits(2);
+            int day = digits(2);
+            while (pos < b.length && b[pos] == ' ') {
+                pos++;
+            }
+            int hour = digits(2);
+            expect(':');
+            int minute = digits(2);
+            skipField();
+            return PriceHistory.epochMinute(year, month, day, hour, minute);
+        }
+
+        /**
+         * decimal number with up to 15 significant digits. The digits are accumulated as a long and divided by
+         * a power of 10, both exact doubles so the result is correctly rounded the same as Double.parseDouble.
+         * Other forms fall back to Double.parseDouble.
+         */
+        double number() {
+            int start = pos;
+            boolean negative = pos < b.length && b[pos] == '-';
+            if (negative) {
+                pos++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int scale = -1;
+            for (; pos < b.length; pos++) {
+                int c = b[pos];
+                if (c >= '0' && c <= '9') {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                } else if (c == '.' && scale < 0) {
+                    scale = digits;
+                } else {
+                    break;
+                }
+            }
+            int decimals = scale < 0 ? 0 : digits - scale;
+            boolean end = pos == b.length || b[pos] == ',' || b[pos] == '\n' || b[pos] == '\r';
+            if (!end || digits == 0 || digits > 15) {
+                return slowNumber(start);
+            }
+            if (pos < b.length && b[pos] == ',') {
+                pos++;
+            }
+            double x = decimals == 0 ? mantissa : mantissa / POW10[decimals];
+            return negative ? -x : x;
+        }
+
+        private double slowNumber(int start) {
+            int end = start;
+            while (end < b.length && b[end] != ',' && b[end] != '\n' && b[end] != '\r') {
+                end++;
+            }
+            var s = new String(b, start, end - start, StandardCharsets.US_ASCII);
+            pos = end < b.length && b[end] == ',' ? end + 1 : end;
+            try {
+                return Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                throw error("invalid number '" + s + "'");
+            }
+        }
+
+        private int digits(int count) {
+            int x = 0;
+            for (int i = 0; i < count; i++, pos++) {
+                if (pos >= b.length || !isDigit(b[pos])) {
+                    throw error("invalid time");
+                }
+                x = x * 10 + (b[pos] - '0');
+            }
+            return x;
+        }
+
+        private void expect(char c) {
+            if (pos >= b.length || b[pos] != c) {
+                throw error("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private static boolean isDigit(byte c) {
+            return c >= '0' && c <= '9';
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("%s line %d: %s".formatted(source, line, message));
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package ibhist;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ibhist.BinaryFiles.*;
+
+/**
+ * Binary snapshot of the parsed csv files of a symbol kept next to the csv files. The snapshot holds the bars
+ * of each source file back to back, not merged, with the path, modified time and size of the file they came
+ * from. A load takes the bars of unchanged files from the memory mapped snapshot, parses only new or changed
+ * files and merges the chunks as CsvLoader does. The snapshot is rewritten when any file was parsed or removed.
+ * <pre>
+ * int magic, int version, int files, int rows, int columns
+ * symbol and file paths relative to the snapshot directory as int length + utf-8 bytes, padded to 8 bytes
+ * per file long modified millis, long size, int start row, int rows
+ * long[rows] times, double[rows] for each column of CsvLoader.COLUMNS
+ * </pre>
+ */
+public class CsvSnapshot {
+    private static final Logger log = LogManager.getLogger(CsvSnapshot.class.getSimpleName());
+    static final String EXTENSION = ".snap";
+    static final int MAGIC = 0x53484249; // IBHS
+    static final int VERSION = 2;
+    private static final int SOURCE_BYTES = 24;
+
+    /**
+     * a source csv file, start and rows locate its bars in the snapshot
+     */
+    record Source(String name, long modified, long size, int start, int rows) {
+        boolean matches(Stat stat) {
+            return stat.modified() == modified && stat.size() == size;
+        }
+    }
+
+    /**
+     * modified millis and size of a csv file, taken before it is parsed so a file rewritten while loading is
+     * parsed again on the next load
+     */
+    record Stat(long modified, long size) {
+        static Stat of(Path file) {
+            try {
+                return new Stat(Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public static Path path(Path dir, String symbol) {
+        return dir.resolve(symbol.toLowerCase() + EXTENSION);
+    }
+
+    /**
+     * the path of a file relative to the directory of the snapshot, or absolute if it is on another root, so files
+     * with the same name in different directories are kept apart
+     */
+    static String sourceName(Path snapshot, Path file) {
+        var dir = snapshot.toAbsolutePath().getParent();
+        var path = file.toAbsolutePath();
+        return (path.getRoot().equals(dir.getRoot()) ? dir.relativize(path) : path).toString().replace('\\', '/');
+    }
+
+    /**
+     * load and merge the csv files of a symbol reusing the bars in the snapshot of files which are unchanged
+     */
+    public static PriceHistory load(String symbol, List<Path> files, Path snapshot) {
+        long t = System.nanoTime();
+        var chunks = new PriceHistory[files.size()];
+        var changed = new ArrayList<Integer>();
+        var stats = files.stream().map(Stat::of).toList();
+        try {
+            Map<String, Source> sources = Map.of();
+            if (Files.exists(snapshot)) {
+                try {
+                    sources = read(snapshot, files, stats, chunks);
+                } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                    log.warn("ignoring snapshot: {}", e.getMessage());
+                    Arrays.fill(chunks, null);
+                }
+            }
+            for (int i = 0; i < files.size(); i++) {
+                if (chunks[i] == null) {
+                    changed.add(i);
+                }
+            }
+            changed.parallelStream().forEach(i -> chunks[i] = CsvLoader.parse(symbol, files.get(i)));
+            var history = CsvLoader.merge(symbol, List.of(chunks));
+            if (!changed.isEmpty() || sources.size() != files.size() - changed.size()) {
+                save(symbol, files, stats, List.of(chunks), snapshot);
+            }
+            log.info("loaded {} bars for {} from {} files, {} parsed, in {} ms", history.length(), symbol, files.size(),
+                    changed.size(), (System.nanoTime() - t) / 1_000_000);
+            return history;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * copy the bars of files unchanged since the snapshot was saved into chunks
+     *
+     * @return all sources listed in the snapshot, empty if the snapshot is from another version
+     * @throws IllegalArgumentException if the snapshot is truncated or corrupt
+     */
+    static Map<String, Source> read(Path snapshot, List<Path> files, List<Stat> stats, PriceHistory[] chunks) throws IOException {
+        try (var channel = FileChannel.open(snapshot, StandardOpenOption.READ);
+             var arena = Arena.ofConfined()) {
+            var segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            if (segment.byteSize() < 20 || segment.get(INT, 0) != MAGIC || segment.get(INT, 4) != VERSION
+                    || segment.get(INT, 16) != CsvLoader.COLUMNS.length - 1) {
+                log.warn("ignoring snapshot {}", snapshot);
+                return Map.of();
+            }
+            int fileCount = segment.get(INT, 8);
+            int rows = segment.get(INT, 12);
+            check(fileCount >= 0 && rows >= 0, "invalid counts", snapshot);
+            long offset = 20;
+            var names = new ArrayList<String>();
+            for (int i = 0; i <= fileCount; i++) {
+                check(offset + 4 <= segment.byteSize(), "truncated", snapshot);
+                int len = segment.get(INT, offset);
+                check(len >= 0 && offset + 4 + len <= segment.byteSize(), "invalid name", snapshot);
+                var bytes = new byte[len];
+                MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset + 4, bytes, 0, len);
+                names.add(new String(bytes, StandardCharsets.UTF_8));
+                offset += 4 + len;
+            }
+            String symbol = names.removeFirst();
+            offset = align(offset);
+            long blockSize = (long) rows * Double.BYTES;
+            check(offset + (long) names.size() * SOURCE_BYTES + blockSize * CsvLoader.COLUMNS.length <= segment.byteSize(),
+                    "truncated", snapshot);
+            Map<String, Source> sources = new HashMap<>();
+            for (var name : names) {
+                var source = new Source(name, segment.get(LONG, offset), segment.get(LONG, offset + 8),
+                        segment.get(INT, offset + 16), segment.get(INT, offset + 20));
+                check(source.start() >= 0 && source.rows() >= 0 && (long) source.start() + source.rows() <= rows, "invalid source", snapshot);
+                sources.put(name, source);
+                offset += SOURCE_BYTES;
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                var source = sources.get(sourceName(snapshot, files.get(i)));
+                if (source == null || !source.matches(stats.get(i))) {
+                    continue;
+                }
+                var chunk = new PriceHistory(symbol, Math.max(source.rows(), 1), CsvLoader.COLUMNS);
+                long block = offset;
+                MemorySegment.copy(segment, LONG, block + (long) source.start() * Long.BYTES, chunk.getTimes(), 0, source.rows());
+                for (var c : chunk.columns()) {
+                    block += blockSize;
+                    MemorySegment.copy(segment, DOUBLE, block + (long) source.start() * Double.BYTES, c.values, 0, source.rows());
+                }
+                chunk.setLength(source.rows());
+                chunks[i] = chunk;
+            }
+            return sources;
+        }
+    }
+
+    /**
+     * save the chunks parsed from files with the file stats taken before parsing, replacing any existing snapshot
+     */
+    static void save(String symbol, List<Path> files, List<Stat> stats, List<PriceHistory> chunks, Path snapshot) throws IOException {
+        int rows = chunks.stream().mapToInt(PriceHistory::length).sum();
+        var names = new ArrayList<byte[]>(files.size() + 1);
+        names.add(symbol.toLowerCase().getBytes(StandardCharsets.UTF_8));
+        for (var file : files) {
+            names.add(sourceName(snapshot, file).getBytes(StandardCharsets.UTF_8));
+        }
+        long sourceOffset = align(20 + names.stream().mapToLong(b -> 4 + b.length).sum());
+        long dataOffset = sourceOffset + (long) files.size() * SOURCE_BYTES;
+        long blockSize = (long) rows * Double.BYTES;
+        long fileSize = dataOffset + blockSize * CsvLoader.COLUMNS.length;
+
+        writeAtomically(snapshot, fileSize, segment -> {
+            segment.set(INT, 0, MAGIC);
+            segment.set(INT, 4, VERSION);
+            segment.set(INT, 8, files.size());
+            segment.set(INT, 12, rows);
+            segment.set(INT, 16, CsvLoader.COLUMNS.length - 1);
+            long offset = 20;
+            for (var bytes : names) {
+                segment.set(INT, offset, bytes.length);
+                MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, offset + 4, bytes.length);
+                offset += 4 + bytes.length;
+            }
+            offset = sourceOffset;
+            int start = 0;
+            for (int i = 0; i < files.size(); i++) {
+                var chunk = chunks.get(i);
+                segment.set(LONG, offset, stats.get(i).modified());
+                segment.set(LONG, offset + 8, stats.get(i).size());
+                segment.set(INT, offset + 16, start);
+                segment.set(INT, offset + 20, chunk.length());
+                offset += SOURCE_BYTES;
+
+                long block = dataOffset;
+                MemorySegment.copy(chunk.getTimes(), 0, segment, LONG, block + (long) start * Long.BYTES, chunk.length());
+                for (var c : chunk.columns()) {
+                    block += blockSize;
+                    MemorySegment.copy(c.values, 0, segment, DOUBLE, block + (long) start * Double.BYTES, chunk.length());
+                }
+                start += chunk.length();
+            }
+        });
+        log.info("saved snapshot of {} files {} rows to {}", files.size(), rows, snapshot);
+    }
+}
@@ -0,0 +1,198 @@
+package ibhist;
+
+import com.ib.client.Bar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes IB bars as csv through a reusable byte buffer. Numbers are formatted with a fixed decimal routine
+ * that gives the same text as String.format("%.2f") in an english locale without creating a String per field.
+ * Files with a .gz extension are gzip compressed.
+ * <pre>
+ * ,Date,Open,High,Low,Close,Volume,WAP,BarCount
+ * 0,20230919 23:00:00,4983.00,4985.00,4982.00,4984.00,2501,4983.033,100
+ * </pre>
+ */
+public class CsvWriter implements Closeable {
+    static final String HEADER = ",Date,Open,High,Low,Close,Volume,WAP,BarCount";
+    private static final long[] POW10 = {1, 10, 100, 1000, 10_000, 100_000, 1_000_000};
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+    private final WritableByteChannel channel;
+    private final byte[] buffer = new byte[1 << 16];
+    private final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+    private int pos = 0;
+
+    public CsvWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * create or replace a file, compressed when the name ends with .gz
+     */
+    public static CsvWriter open(Path file) throws IOException {
+        if (file.getFileName().toString().endsWith(".gz")) {
+            return new CsvWriter(Channels.newChannel(new GZIPOutputStream(Files.newOutputStream(file), 1 << 16)));
+        }
+        return new CsvWriter(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    public CsvWriter header() throws IOException {
+        text(HEADER);
+        return newLine();
+    }
+
+    /**
+     * row number, the date and time of the bar without the time zone, prices, volume, wap and count
+     */
+    public CsvWriter bar(int c, Bar bar) throws IOException {
+        integer(c).comma();
+        time(bar.time()).comma();
+        fixed(bar.open(), 2).comma();
+        fixed(bar.high(), 2).comma();
+        fixed(bar.low(), 2).comma();
+        fixed(bar.close(), 2).comma();
+        integer(PriceHistory.ibVolume(bar)).comma();
+        fixed(bar.wap().value().doubleValue(), 3).comma();
+        integer(bar.count());
+        return newLine();
+    }
+
+    /**
+     * the first two whitespace separated parts of an IB time "20230919 23:00:00 Europe/London"
+     */
+    CsvWriter time(String s) throws IOException {
+        int i = 0;
+        int n = s.length();
+        for (int part = 0; part < 2; part++) {
+            while (i < n && Character.isWhitespace(s.charAt(i))) {
+                i++;
+            }
+            if (part > 0 && i < n) {
+                put((byte) ' ');
+            }
+            for (; i < n && !Character.isWhitespace(s.charAt(i)); i++) {
+                put((byte) s.charAt(i));
+            }
+        }
+        return this;
+    }
+
+    CsvWriter text(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put((byte) s.charAt(i));
+        }
+        return this;
+    }
+
+    CsvWriter comma() throws IOException {
+        return put((byte) ',');
+    }
+
+    CsvWriter newLine() throws IOException {
+        for (byte b : LINE_SEPARATOR) {
+            put(b);
+        }
+        return this;
+    }
+
+    CsvWriter integer(long x) throws IOException {
+        if (x < 0) {
+            if (x == Long.MIN_VALUE) {
+                return text(Long.toString(x));
+            }
+            put((byte) '-');
+            x = -x;
+        }
+        ensure(20);
+        int end = pos + digitCount(x);
+        for (int i = end - 1; i >= pos; i--) {
+            buffer[i] = (byte) ('0' + x % 10);
+            x /= 10;
+        }
+        pos = end;
+        return this;
+    }
+
+    /**
+     * value rounded half up to the given decimal places. String.format rounds the shortest decimal representation,
+     * so 1.005 gives 1.01 although its binary value is below 1.005. Scaled values within a few ulp of a half are
+     * rounded with BigDecimal.valueOf to get the same digits. Values too large to scale exactly, infinities and
+     * NaN use String.format.
+     */
+    CsvWriter fixed(double value, int decimals) throws IOException {
+        double scaled = Math.abs(value) * POW10[decimals];
+        if (!(scaled < 0x1p52)) {
+            return text(String.format(Locale.ROOT, "%." + decimals + "f", value));
+        }
+        double floor = Math.floor(scaled);
+        long rounded = Math.abs(scaled - floor - 0.5) > 8 * Math.ulp(scaled)
+                ? (long) Math.floor(scaled + 0.5)
+                : BigDecimal.valueOf(Math.abs(value)).setScale(decimals, RoundingMode.HALF_UP).unscaledValue().longValue();
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            put((byte) '-');
+        }
+        integer(rounded / POW10[decimals]);
+        if (decimals > 0) {
+            put((byte) '.');
+            long fraction = rounded % POW10[decimals];
+            ensure(decimals);
+            for (int i = pos + decimals - 1; i >= pos; i--) {
+                buffer[i] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            pos += decimals;
+        }
+        return this;
+    }
+
+    private static int digitCount(long x) {
+        int n = 1;
+        while (x >= 10) {
+            x /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    private CsvWriter put(byte b) throws IOException {
+        ensure(1);
+        buffer[pos++] = b;
+        return this;
+    }
+
+    private void ensure(int n) throws IOException {
+        if (pos + n > buffer.length) {
+            flush();
+        }
+    }
+
+    public void flush() throws IOException {
+        wrapped.clear().limit(pos);
+        while (wrapped.hasRemaining()) {
+            channel.write(wrapped);
+        }
+        pos = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -1,18 +1,22 @@
 package ibhist;
 
 import com.ib.client.*;
-
+import org.apache.logging.log4j.util.Unbox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static ibhist.StringUtils.WS_SPLITTER;
-
 /**
  * Handles 3 TWS callbacks
  * historicalData, historicalDataEnd, historicalDataUpdate
@@ -23,7 +27,7 @@ public class HistoricalDataAction extends ActionBase {
     private final LocalDate endDate;
     private final Duration duration;
     private final boolean keepUpToDate;
-    private final LocalDateTime updateUntil;
+    private final long updateUntil; // epoch minute
     private final List<Bar> bars = new ArrayList<>();
     private final MonitorManager monitorManager;
     private final List<PriceMonitor> monitors = new ArrayList<>();
@@ -37,7 +41,7 @@ public class HistoricalDataAction extends ActionBase {
         this.endDate = endDate;
         this.duration = duration;
         this.keepUpToDate = keepUpToDate;
-        this.updateUntil = keepUpToDate ? LocalDateTime.now().plusMinutes(15) : null;
+        this.updateUntil = keepUpToDate ? PriceHistory.toEpochMinute(LocalDateTime.now().plusMinutes(15)) : Long.MAX_VALUE;
         this.monitorManager = monitorManager;
     }
 
@@ -86,7 +90,8 @@ public class HistoricalDataAction extends ActionBase {
 
     public void onHistoricalDataUpdate(Bar bar) {
 //        log.info(barToCsv(currentBarCount, bar));
-        if (bar.volume().longValue() < 0) {
+        long volume = PriceHistory.ibVolume(bar);
+        if (volume < 0) {
             log.info("ignoring bar with neg vol " + bar.time());
             return;
         }
@@ -94,29 +99,29 @@ public class HistoricalDataAction extends ActionBase {
             init();
             init = true;
         }
+        // live history is built from the bars received so far then updated in place with each bar
+        var history = asPriceHistory();
+        long tm = PriceHistory.parseEpochMinute(bar.time());
         // replace or insert bar
-        if (bars.getLast().time().equals(bar.time())) {
-            bars.removeLast();
-            bars.add(bar);
-            for (var m : monitors) {
-                m.test(bar.close());
+        int last = history.length() - 1;
+        if (last >= 0 && history.getTimes()[last] == tm) {
+            bars.set(bars.size() - 1, bar);
+            history.replaceLast(tm, bar.open(), bar.high(), bar.low(), bar.close(), volume);
+            for (int i = 0; i < monitors.size(); i++) {
+                monitors.get(i).test(bar.close());
             }
             // show history when last bar of current minute received
             if (--currentBarCount == 0) {
-//                int n = bars.size();
-//                bars.subList(n - 120, n);
-                var hist = PriceHistory.createFromIBBars(getSymbol(), bars);
-                hist.vwap("vwap");
-                hist.strat("strat");
-                StringUtils.print(hist.toString());
-                StringUtils.print(hist.asTextTable(-15));
+                StringUtils.print(history.toString());
+                StringUtils.print(history.asTextTable(-15));
             }
         } else {
             bars.add(bar);
+            history.append(tm, bar.open(), bar.high(), bar.low(), bar.close(), volume);
             currentBarCount = 11;
         }
 
-        if (keepUpToDate && currentBarCount == 0 && parseTime(bar).isAfter(updateUntil)) {
+        if (keepUpToDate && currentBarCount == 0 && tm > updateUntil) {
             cancel();
         }
     }
@@ -152,18 +157,41 @@ public class HistoricalDataAction extends ActionBase {
      * @return csv string
      */
     public String barsAsCsv() {
-        var xs = new StringBuilder();
-        xs.append(",Date,Open,High,Low,Close,Volume,WAP,BarCount").append(System.lineSeparator());
-        int c = 0;
-        for (Bar bar : bars) {
-            xs.append(barToCsv(c++, bar)).append(System.lineSeparator());
+        var out = new ByteArrayOutputStream(bars.size() * 64 + 64);
+        try {
+            writeCsv(new CsvWriter(Channels.newChannel(out)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * stream the bars in the barsAsCsv format to a file, gzip compressed if the name ends with .gz
+     */
+    public Path writeCsv(Path file) {
+        try {
+            writeCsv(CsvWriter.open(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return xs.toString();
+        log.info("saved {} bars to {}", bars.size(), file);
+        return file;
     }
 
-    private void eventHandler(PriceEvent event) {
-        log.info(event.toString());
-        switch (event.state()) {
+    private void writeCsv(CsvWriter writer) throws IOException {
+        try (writer) {
+            writer.header();
+            int c = 0;
+            for (Bar bar : bars) {
+                writer.bar(c++, bar);
+            }
+        }
+    }
+
+    private void eventHandler(ChangeState state, double price) {
+        log.info("PriceEvent[state={}, price={}]", state, Unbox.box(price));
+        switch (state) {
             case ChangeState.entry -> {
                 var ord = new OrderDetails(Types.Action.BUY, OrderType.LMT, 6049.50, 1, Types.TimeInForce.DAY);
                 var group = ord.createOrderGroup(32, 32);
@@ -172,16 +200,4 @@ public class HistoricalDataAction extends ActionBase {
 
         }
     }
-
-    private String barToCsv(int c, Bar bar) {
-        // time = 20230919 23:00:00 Europe/London
-        var timeParts = WS_SPLITTER.splitToList(bar.time());
-        return String.format("%d,%s %s,%.2f,%.2f,%.2f,%.2f,%d,%.3f,%d", c, timeParts.get(0), timeParts.get(1), bar.open(), bar.high(), bar.low(), bar.close(), bar.volume().longValue(), bar.wap().value().doubleValue(), bar.count());
-    }
-
-    private LocalDateTime parseTime(Bar bar) {
-        var timeParts = WS_SPLITTER.splitToList(bar.time());
-        return LocalDateTime.of(LocalDate.parse(timeParts.get(0), DateTimeFormatter.BASIC_ISO_DATE),
-                LocalTime.parse(timeParts.get(1)));
-    }
 }
@@ -301,7 +301,7 @@ public class IBConnectorImpl implements IBConnector, ActionProvider {
             print(history.intradayPriceInfo(-1));
 
             if (fSave) {
-                path = priceHistoryRepo.get().saveCsv(action.getSymbol(), history.indexEntry(0).tradeDate(), action.barsAsCsv());
+                path = priceHistoryRepo.get().saveCsv(action.getSymbol(), history.indexEntry(0).tradeDate(), action);
             }
         }
         return path;
@@ -314,7 +314,7 @@ public class IBConnectorImpl implements IBConnector, ActionProvider {
         if (!bars.isEmpty()) {
             log.info(contract.symbol() + " bars from " + bars.getFirst().time() + " to " + bars.getLast().time());
             var history = action.asPriceHistory();
-            priceHistoryRepo.get().saveCsv(action.getSymbol(), history.getDates()[0].toLocalDate(), action.barsAsCsv());
+            priceHistoryRepo.get().saveCsv(action.getSymbol(), history.date(0).toLocalDate(), action);
         }
     }
 
@@ -0,0 +1,277 @@
+package ibhist;
+
+/**
+ * A PriceHistory column that is maintained incrementally as bars are appended or the last bar is replaced.
+ * Each implementation carries the state needed to compute the next bar, e.g. running totals or a deque, and
+ * saves the state before each bar so the last bar can be recomputed after it has been replaced.
+ */
+abstract class Indicator {
+    final String name;
+    int processed = 0; // bars [0, processed) have been computed
+
+    Indicator(String name) {
+        this.name = name;
+    }
+
+    /**
+     * prepare the carried state so bars from index from onwards can be recomputed
+     *
+     * @return the first bar that needs to be computed
+     */
+    int rewind(int from) {
+        if (from >= processed) {
+            return processed;
+        }
+        if (from == processed - 1) {
+            rollback();
+            return from;
+        }
+        reset();
+        return 0;
+    }
+
+    /**
+     * clear carried state before computing from the first bar
+     */
+    abstract void reset();
+
+    /**
+     * restore the state saved before the last bar was computed
+     */
+    abstract void rollback();
+
+    /**
+     * compute out[i] for bars [start, end) advancing the carried state
+     */
+    abstract void compute(PriceHistory history, double[] out, int start, int end);
+
+    /**
+     * anchored vwap which resets after a gap of 30 minutes. The price used for each bar is either
+     * the wap column if available or the mid point
+     */
+    static final class Vwap extends Indicator {
+        private double cumVol;
+        private double totalPV;
+        private long lastTm = Long.MIN_VALUE;
+        private double savedCumVol;
+        private double savedTotalPV;
+        private long savedLastTm;
+
+        Vwap(String name) {
+            super(name);
+        }
+
+        @Override
+        void reset() {
+            cumVol = 0;
+            totalPV = 0;
+            lastTm = Long.MIN_VALUE;
+        }
+
+        @Override
+        void rollback() {
+            cumVol = savedCumVol;
+            totalPV = savedTotalPV;
+            lastTm = savedLastTm;
+        }
+
+        @Override
+        void compute(PriceHistory history, double[] out, int start, int end) {
+            var times = history.getTimes();
+            var wap = history.findColumn("wap");
+            var highs = history.getColumn("high");
+            var lows = history.getColumn("low");
+            var vols = history.getColumn("volume");
+            for (int i = start; i < end; i++) {
+                savedCumVol = cumVol;
+                savedTotalPV = totalPV;
+                savedLastTm = lastTm;
+                if (lastTm != Long.MIN_VALUE && times[i] - lastTm >= 30) {
+                    cumVol = 0;
+                    totalPV = 0;
+                }
+                double vol = vols[i];
+                cumVol += vol;
+                totalPV += vol * (wap == null ? (highs[i] + lows[i]) * .5 : wap[i]);
+                out[i] = totalPV / cumVol;
+                lastTm = times[i];
+            }
+        }
+    }
+
+    /**
+     * exponential moving average. The first period bars are filled with their simple average once
+     * period bars are available, until then they hold the average so far.
+     */
+    static final class Ema extends Indicator {
+        private final String input;
+        private final int period;
+        private final double w;
+        private double sum;
+        private double avg;
+        private double savedSum;
+        private double savedAvg;
+
+        Ema(String name, String input, int period) {
+            super(name);
+            this.input = input;
+            this.period = period;
+            this.w = 2d / (period + 1);
+        }
+
+        @Override
+        void reset() {
+            sum = 0;
+            avg = 0;
+        }
+
+        @Override
+        void rollback() {
+            sum = savedSum;
+            avg = savedAvg;
+        }
+
+        @Override
+        void compute(PriceHistory history, double[] out, int start, int end) {
+            var as = history.getColumn(input);
+            for (int i = start; i < end; i++) {
+                savedSum = sum;
+                savedAvg = avg;
+                if (i < period) {
+                    sum += as[i];
+                    avg = sum / (i + 1);
+                    if (i == period - 1) {
+                        for (int j = 0; j < period; j++) {
+                            out[j] = avg;
+                        }
+                    }
+                } else {
+                    avg = w * as[i] + (1 - w) * avg;
+                }
+                out[i] = avg;
+            }
+        }
+    }
+
+    /**
+     * classifies a bar based on high/low compared to prior bar.
+     * 0 inside; 1 higher high; 2 lower low; 3 outside;
+     */
+    static final class Strat extends Indicator {
+        Strat(String name) {
+            super(name);
+        }
+
+        @Override
+        void reset() {
+        }
+
+        @Override
+        void rollback() {
+        }
+
+        @Override
+        void compute(PriceHistory history, double[] out, int start, int end) {
+            var highs = history.getColumn("high");
+            var lows = history.getColumn("low");
+            for (int i = Math.max(start, 1); i < end; i++) {
+                int x = highs[i] > highs[i - 1] ? 1 : 0;
+                x += lows[i] < lows[i - 1] ? 2 : 0;
+                out[i] = x;
+            }
+        }
+    }
+
+    /**
+     * rolling max or min over the last n bars using a monotonic deque of indexes held in a ring buffer.
+     * Pushing a bar overwrites at most one slot of the popped entries, so saving that slot with head and tail
+     * is enough to undo the last bar.
+     */
+    static final class Rolling extends Indicator {
+        private final String input;
+        private final int n;
+        private final boolean isMax;
+        private final int[] dq;  // ring buffer of indexes, head always points to current max/min in window
+        private int head;
+        private int tail;        // insertion point
+        private int savedHead;
+        private int savedTail;
+        private int savedSlot;
+
+        Rolling(String name, String input, int n, boolean isMax) {
+            super(name);
+            this.input = input;
+            this.n = n;
+            this.isMax = isMax;
+            dq = new int[n + 1];
+        }
+
+        @Override
+        void reset() {
+            head = 0;
+            tail = 0;
+        }
+
+        @Override
+        void rollback() {
+            dq[(tail - 1) % dq.length] = savedSlot;
+            head = savedHead;
+            tail = savedTail;
+        }
+
+        @Override
+        void compute(PriceHistory history, double[] out, int start, int end) {
+            var nums = history.getColumn(input);
+            int cap = dq.length;
+            for (int i = start; i < end; i++) {
+                savedHead = head;
+                savedTail = tail;
+                double x = nums[i];
+                // working from back of q remove items which can never be the max/min
+                while (tail > head && (isMax ? x > nums[dq[(tail - 1) % cap]] : x < nums[dq[(tail - 1) % cap]])) {
+                    --tail;
+                }
+                savedSlot = dq[tail % cap];
+                dq[tail % cap] = i;
+                ++tail;
+                if (dq[head % cap] <= i - n) {
+                    ++head;
+                }
+                out[i] = nums[dq[head % cap]];
+            }
+        }
+    }
+
+    /**
+     * hilo counts, see PriceHistory.HiloCounter. The counter links are valid for every processed bar
+     * so it can resume from any earlier bar without a full rebuild.
+     */
+    static final class Hilo extends Indicator {
+        private final String input;
+        private PriceHistory.HiloCounter counter = new PriceHistory.HiloCounter();
+
+        Hilo(String name, String input) {
+            super(name);
+            this.input = input;
+        }
+
+        @Override
+        int rewind(int from) {
+            return Math.min(from, processed);
+        }
+
+        @Override
+        void reset() {
+            counter = new PriceHistory.HiloCounter();
+        }
+
+        @Override
+        void rollback() {
+        }
+
+        @Override
+        void compute(PriceHistory history, double[] out, int start, int end) {
+            counter.update(history.getColumn(input), out, start, end);
+        }
+    }
+}
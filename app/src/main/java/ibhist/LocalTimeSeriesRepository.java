@@ -0,0 +1,744 @@
+package ibhist;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static ibhist.TimeSeriesRepositoryImpl.*;
+
+/**
+ * File backed TimeSeriesRepository for running without MongoDB, e.g. on build agents or for research runs.
+ * Selected with -Dibhist.store=local, files are kept under -Dibhist.storeDir (default ~/Documents/data/store)
+ * in ColumnStore format.
+ * <pre>
+ * m1/{symbol}/{seq}.col   append-only segments, a bar in a later segment replaces a bar with the same time
+ * min_vol/{symbol}.col    min volume bars, the time is the bar start and the end column its end minute
+ * daily/{symbol}.col      daily bars, dailyRth/{symbol}.col for rth only
+ * </pre>
+ * The segments of a symbol are merged into one PriceHistory when the symbol is first used and compacted into
+ * a single segment once there are more than MAX_SEGMENTS. The trade date index is computed from the merged
+ * history and held in memory.
+ */
+public class LocalTimeSeriesRepository implements TimeSeriesRepository {
+    private static final Logger log = LogManager.getLogger(LocalTimeSeriesRepository.class.getSimpleName());
+    static final String STORE_PROPERTY = "ibhist.store";
+    static final String STORE_DIR_PROPERTY = "ibhist.storeDir";
+    static final int MAX_SEGMENTS = 16;
+    private static final String[] M1_COLUMNS = {"date", "open", "high", "low", "close", "volume", "vwap", "ema"};
+    private static final String[] MIN_VOL_COLUMNS = {"date", "end", "open", "high", "low", "close", "volume", "vwap", "ema"};
+    private static final String[] DAILY_COLUMNS = {"date", "open", "high", "low", "close", "volume", "vwap"};
+    private final Path dir;
+    private final Map<String, SymbolData> symbols = new ConcurrentHashMap<>();
+
+    public LocalTimeSeriesRepository() {
+        this(Path.of(System.getProperty(STORE_DIR_PROPERTY,
+                Path.of(System.getProperty("user.home"), "Documents", "data", "store").toString())));
+    }
+
+    public LocalTimeSeriesRepository(Path dir) {
+        this.dir = dir;
+        log.info("local store {}", dir.toAbsolutePath());
+    }
+
+    /**
+     * true if the local store was selected at startup with -Dibhist.store=local
+     */
+    static boolean isSelected() {
+        return "local".equalsIgnoreCase(System.getProperty(STORE_PROPERTY));
+    }
+
+    /**
+     * merged m1 bars of a symbol and the trade date index computed from them. Guarded by synchronizing on the
+     * SymbolData, which also serializes the read-modify-write of the symbol's min_vol file.
+     */
+    private static final class SymbolData {
+        final String symbol;
+        PriceHistory m1;
+        int segments = 0;
+        int nextSeq = 0;
+        @Nullable List<TradeDateIndexEntry> tradeDates;
+
+        SymbolData(String symbol) {
+            this.symbol = symbol;
+            m1 = new PriceHistory(symbol, PriceHistory.DAY_BARS, M1_COLUMNS);
+        }
+
+        List<TradeDateIndexEntry> tradeDates() {
+            if (tradeDates == null) {
+                tradeDates = contiguousRegions(m1, TRADE_DATE_GAP_MINS);
+            }
+            return tradeDates;
+        }
+    }
+
+    private SymbolData data(String symbol) {
+        return symbols.computeIfAbsent(symbol.toLowerCase(), this::loadSymbol);
+    }
+
+    private SymbolData loadSymbol(String symbol) {
+        var data = new SymbolData(symbol);
+        var files = list(dir.resolve(M1_COLLECTION).resolve(symbol));
+        for (var file : files) {
+            data.m1 = merge(data.m1, ColumnStore.load(file, 0));
+        }
+        data.segments = files.size();
+        data.nextSeq = files.isEmpty() ? 0 : seq(files.getLast()) + 1;
+        log.info("loaded {} bars for {} from {} segments", data.m1.length(), symbol, files.size());
+        return data;
+    }
+
+    /**
+     * save bars [from, to) of the history as a new segment and merge them into the symbol
+     */
+    private void writeSegment(SymbolData data, PriceHistory history, int from, int to) {
+        var segment = new PriceHistory(data.symbol, Math.max(to - from, 1), M1_COLUMNS);
+        PriceHistoryCache.copyRows(history, from, to, segment);
+        writeSegment(data, segment);
+    }
+
+    private void writeSegment(SymbolData data, PriceHistory segment) {
+        if (segment.length() == 0) {
+            return;
+        }
+        var segmentDir = createDirectories(dir.resolve(M1_COLLECTION).resolve(data.symbol));
+        ColumnStore.save(segment, segmentDir.resolve("%08d%s".formatted(data.nextSeq++, ColumnStore.EXTENSION)));
+        data.segments++;
+        data.m1 = merge(data.m1, segment);
+        data.tradeDates = null;
+        if (data.segments > MAX_SEGMENTS) {
+            compact(data, segmentDir);
+        }
+    }
+
+    /**
+     * replace all segments with one holding the merged history. The new segment is in place before the old
+     * ones are deleted so an interrupted compaction loads the same bars.
+     */
+    private void compact(SymbolData data, Path segmentDir) {
+        var old = list(segmentDir);
+        ColumnStore.save(data.m1, segmentDir.resolve("%08d%s".formatted(data.nextSeq++, ColumnStore.EXTENSION)));
+        for (var file : old) {
+            delete(file);
+        }
+        data.segments = 1;
+        log.info("compacted {} segments for {}", old.size(), data.symbol);
+    }
+
+    /**
+     * merge histories with ascending times, a bar of b replaces the bar of a with the same time.
+     * Appending after the last bar of a is done in place.
+     */
+    static PriceHistory merge(PriceHistory a, PriceHistory b) {
+        int an = a.length();
+        int bn = b.length();
+        long[] at = a.getTimes();
+        long[] bt = b.getTimes();
+        if (bn == 0) {
+            return a;
+        }
+        if (an == 0 || at[an - 1] < bt[0]) {
+            if (an + bn > at.length) {
+                a.ensureCapacity(Math.max(an + bn, at.length * 2));
+            }
+            PriceHistoryCache.copyRows(b, 0, bn, a);
+            return a;
+        }
+        var merged = new PriceHistory(a.getSymbol(), an + bn + PriceHistory.DAY_BARS, M1_COLUMNS);
+        int i = 0;
+        int j = 0;
+        while (i < an || j < bn) {
+            if (j == bn || (i < an && at[i] < bt[j])) {
+                int k = i;
+                while (k < an && (j == bn || at[k] < bt[j])) {
+                    k++;
+                }
+                PriceHistoryCache.copyRows(a, i, k, merged);
+                i = k;
+            } else {
+                int k = j;
+                while (k < bn && (i == an || bt[k] <= at[i])) {
+                    if (i < an && bt[k] == at[i]) {
+                        i++;
+                    }
+                    k++;
+                }
+                PriceHistoryCache.copyRows(b, j, k, merged);
+                j = k;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return index of the bar with time t in the history or -1
+     */
+    private static int indexOf(PriceHistory history, long t) {
+        int i = Arrays.binarySearch(history.getTimes(), 0, history.length(), t);
+        return Math.max(i, -1);
+    }
+
+    /**
+     * @return index of the first bar at or after t
+     */
+    private static int lowerBound(PriceHistory history, long t) {
+        int i = Arrays.binarySearch(history.getTimes(), 0, history.length(), t);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * new history holding the bars between [start, end] inclusive with room for a day of streamed bars
+     */
+    private static PriceHistory slice(PriceHistory m1, LocalDateTime start, LocalDateTime end) {
+        int from = lowerBound(m1, PriceHistory.toEpochMinute(start));
+        int to = lowerBound(m1, PriceHistory.toEpochMinute(end) + 1);
+        var history = new PriceHistory(m1.getSymbol(), Math.max(to - from, 0) + PriceHistory.DAY_BARS, M1_COLUMNS);
+        PriceHistoryCache.copyRows(m1, from, to, history);
+        return history;
+    }
+
+    private static boolean hasRth(TradeDateIndexEntry e) {
+        return !e.rthStart().equals(LocalDateTime.MIN);
+    }
+
+    /**
+     * true if every stored value of the bar equals the history, as the mongo upsert sets every field
+     */
+    private static boolean sameBar(PriceHistory stored, int i, PriceHistory history, int j) {
+        for (int k = 1; k < M1_COLUMNS.length; k++) {
+            if (Double.compare(stored.getColumn(M1_COLUMNS[k])[i], history.getColumn(M1_COLUMNS[k])[j]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void createM1TimeSeriesCollection(String name, boolean dropExisting) {
+        dropIfRequested(name, dropExisting);
+        if (dropExisting && name.equals(M1_COLLECTION)) {
+            symbols.clear();
+        }
+    }
+
+    @Override
+    public void createMinVolTimeSeriesCollection(String name, boolean dropExisting) {
+        dropIfRequested(name, dropExisting);
+    }
+
+    @Override
+    public void createDailyTimeSeriesCollection(String name, boolean dropExisting) {
+        if (name.equals(TRADE_DATE_INDEX_COLLECTION)) {
+            // the trade date index is only held in memory
+            if (dropExisting) {
+                symbols.values().forEach(d -> {
+                    synchronized (d) {
+                        d.tradeDates = null;
+                    }
+                });
+            }
+            return;
+        }
+        dropIfRequested(name, dropExisting);
+    }
+
+    private void dropIfRequested(String name, boolean dropExisting) {
+        var path = dir.resolve(name);
+        if (dropExisting && Files.exists(path)) {
+            try (Stream<Path> files = Files.walk(path)) {
+                files.sorted(Comparator.reverseOrder()).forEach(LocalTimeSeriesRepository::delete);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            log.info("dropped {}", path);
+        }
+        createDirectories(path);
+    }
+
+    @Override
+    public void insertM1(PriceHistory history) {
+        var data = data(history.getSymbol());
+        synchronized (data) {
+            writeSegment(data, history, 0, history.length());
+        }
+        log.info("inserted {} bars into m1", history.length());
+    }
+
+    @Override
+    public int appendM1(PriceHistory history) {
+        var data = data(history.getSymbol());
+        synchronized (data) {
+            // first bar which is not stored or has a different volume, e.g. a partially formed last bar
+            long[] times = history.getTimes();
+            var volumes = history.getColumn("volume");
+            var stored = data.m1.getColumn("volume");
+            int from = 0;
+            while (from < history.length()) {
+                int i = indexOf(data.m1, times[from]);
+                if (i < 0 || stored[i] != volumes[from]) {
+                    break;
+                }
+                from++;
+            }
+            writeSegment(data, history, from, history.length());
+            log.info("appended {} bars to m1", history.length() - from);
+            return history.length() - from;
+        }
+    }
+
+    @Override
+    public int upsertM1(PriceHistory history) {
+        var data = data(history.getSymbol());
+        synchronized (data) {
+            long[] times = history.getTimes();
+            var changed = new PriceHistory(data.symbol, Math.max(history.length(), 1), M1_COLUMNS);
+            for (int j = 0; j < history.length(); j++) {
+                int i = indexOf(data.m1, times[j]);
+                if (i < 0 || !sameBar(data.m1, i, history, j)) {
+                    PriceHistoryCache.copyRows(history, j, j + 1, changed);
+                }
+            }
+            writeSegment(data, changed);
+            log.info("upserted {} of {} bars into m1", changed.length(), history.length());
+            return changed.length();
+        }
+    }
+
+    @Override
+    public void insertMinVol(PriceHistory history) {
+        var bars = history.minVolBars(2500);
+        if (!bars.isEmpty()) {
+            var symbol = history.getSymbol();
+            var first = bars.getFirst().start();
+            synchronized (data(symbol)) {
+                var stored = loadMinVol(symbol).stream().filter(b -> b.start().isBefore(first));
+                saveMinVol(symbol, Stream.concat(stored, bars.stream()).toList());
+            }
+        }
+        log.info("inserted {} min vol bars", bars.size());
+    }
+
+    @Override
+    public LocalDateTime rebuildMinVol(PriceHistory history) {
+        synchronized (data(history.getSymbol())) {
+            return rebuildMinVol(history, loadMinVol(history.getSymbol()), 0);
+        }
+    }
+
+    @Override
+    public LocalDateTime appendMinVol(PriceHistory history) {
+        var data = data(history.getSymbol());
+        synchronized (data) {
+            var stored = loadMinVol(data.symbol);
+            if (!stored.isEmpty()) {
+                // resume from the start of the last stored bar as it may have been built from an incomplete m1 bar
+                var lastStart = stored.getLast().start();
+                int i = history.find(lastStart);
+                if (i >= 0) {
+                    return rebuildMinVol(history, stored, i);
+                }
+                if (lastStart.isBefore(history.date(0))) {
+                    // the history starts after the last stored bar so continue from the stored session holding it
+                    var session = data.tradeDates().stream()
+                            .filter(e -> !e.start().isAfter(lastStart) && !e.end().isBefore(lastStart))
+                            .findFirst();
+                    if (session.isPresent()) {
+                        var m1 = slice(data.m1, session.get().start(), history.date(history.length() - 1));
+                        int from = m1.find(lastStart);
+                        if (from >= 0) {
+                            return rebuildMinVol(m1, stored, from);
+                        }
+                    }
+                }
+            }
+            return rebuildMinVol(history, stored, 0);
+        }
+    }
+
+    private LocalDateTime rebuildMinVol(PriceHistory history, List<PriceHistory.Bar> stored, int from) {
+        var symbol = history.getSymbol();
+        var firstBar = history.date(from);
+        var bars = history.minVolBars(2500, from);
+        var kept = stored.stream().filter(b -> b.start().isBefore(firstBar));
+        saveMinVol(symbol, Stream.concat(kept, bars.stream()).toList());
+        log.info("rebuilt {} min vol bars from {}", bars.size(), firstBar);
+        return firstBar;
+    }
+
+    List<PriceHistory.Bar> loadMinVol(String symbol) {
+        var file = ColumnStore.path(dir.resolve(MIN_VOL_COLLECTION), symbol);
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        var h = ColumnStore.load(file, 0);
+        var ends = h.getColumn("end");
+        var bars = new ArrayList<PriceHistory.Bar>(h.length());
+        for (int i = 0; i < h.length(); i++) {
+            bars.add(new PriceHistory.Bar(h.date(i), PriceHistory.toLocalDateTime((long) ends[i]),
+                    h.getColumn("open")[i], h.getColumn("high")[i], h.getColumn("low")[i], h.getColumn("close")[i],
+                    h.getColumn("volume")[i], h.getColumn("vwap")[i], h.getColumn("ema")[i]));
+        }
+        return bars;
+    }
+
+    private void saveMinVol(String symbol, List<PriceHistory.Bar> bars) {
+        var h = new PriceHistory(symbol, Math.max(bars.size(), 1), MIN_VOL_COLUMNS);
+        for (int i = 0; i < bars.size(); i++) {
+            var b = bars.get(i);
+            h.getTimes()[i] = PriceHistory.toEpochMinute(b.start());
+            h.getColumn("end")[i] = PriceHistory.toEpochMinute(b.end());
+            h.getColumn("open")[i] = b.open();
+            h.getColumn("high")[i] = b.high();
+            h.getColumn("low")[i] = b.low();
+            h.getColumn("close")[i] = b.close();
+            h.getColumn("volume")[i] = b.volume();
+            h.getColumn("vwap")[i] = b.vwap();
+            h.getColumn("ema")[i] = b.ema();
+        }
+        h.setLength(bars.size());
+        ColumnStore.save(h, ColumnStore.path(createDirectories(dir.resolve(MIN_VOL_COLLECTION)), symbol));
+    }
+
+    @Override
+    public PriceHistory loadPriceHistory(String symbol, LocalDate startDate, LocalDate endDate, boolean rthOnly) {
+        var data = data(symbol);
+        synchronized (data) {
+            var tradeDates = new TradeDates(data.tradeDates());
+            if (tradeDates.isEmpty()) {
+                throw new RuntimeException("No data found for symbol = '" + symbol + "'");
+            }
+            int start = tradeDates.indexOf(startDate);
+            if (start < 0) {
+                return null;
+            }
+            int end = tradeDates.indexOf(endDate);
+            var startEntry = tradeDates.entries().get(start);
+            var endEntry = tradeDates.entries().get(end < 0 ? tradeDates.size() - 1 : end);
+            var startTm = rthOnly && hasRth(startEntry) ? startEntry.rthStart() : startEntry.start();
+            var endTm = rthOnly && hasRth(endEntry) ? endEntry.rthEnd() : endEntry.end();
+            return slice(data.m1, startTm, endTm);
+        }
+    }
+
+    @Override
+    public PriceHistory loadPriceHistory(String symbol, int index, int days) {
+        var data = data(symbol);
+        synchronized (data) {
+            var tradeDates = data.tradeDates();
+            int start = index >= 0 ? index : tradeDates.size() + index;
+            int end = Math.min(start + days - 1, tradeDates.size() - 1);
+            return slice(data.m1, tradeDates.get(start).start(), tradeDates.get(end).end());
+        }
+    }
+
+    @Override
+    public List<PriceBarM> queryM1RowsBetween(String symbol, LocalDateTime start, LocalDateTime end) {
+        var data = data(symbol);
+        synchronized (data) {
+            var m1 = data.m1;
+            int from = lowerBound(m1, PriceHistory.toEpochMinute(start));
+            int to = lowerBound(m1, PriceHistory.toEpochMinute(end) + 1);
+            var rows = new ArrayList<PriceBarM>(Math.max(to - from, 0));
+            for (int i = from; i < to; i++) {
+                rows.add(new PriceBarM(null, data.symbol, m1.date(i), m1.getColumn("open")[i], m1.getColumn("high")[i],
+                        m1.getColumn("low")[i], m1.getColumn("close")[i], m1.getColumn("volume")[i],
+                        m1.getColumn("vwap")[i], m1.getColumn("ema")[i]));
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * symbols with m1 data in the store
+     */
+    private List<String> storedSymbols() {
+        var names = new TreeSet<String>(symbols.keySet());
+        var m1Dir = dir.resolve(M1_COLLECTION);
+        if (Files.isDirectory(m1Dir)) {
+            try (Stream<Path> paths = Files.list(m1Dir)) {
+                paths.filter(Files::isDirectory).forEach(p -> names.add(p.getFileName().toString()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return List.copyOf(names);
+    }
+
+    @Override
+    public List<Summary> queryM1Summary() {
+        var summaries = new ArrayList<Summary>();
+        for (var symbol : storedSymbols()) {
+            var data = data(symbol);
+            synchronized (data) {
+                var m1 = data.m1;
+                int n = m1.length();
+                if (n > 0) {
+                    var stats = m1.summaryStats("high", 0, n);
+                    var lows = m1.summaryStats("low", 0, n);
+                    summaries.add(new Summary(symbol, n, stats.max(), lows.min(), m1.date(0), m1.date(n - 1)));
+                }
+            }
+        }
+        summaries.sort(Comparator.comparing(Summary::start));
+        return summaries;
+    }
+
+    @Override
+    public List<String> rebuildTradeDateIndex() {
+        var symbols = storedSymbols();
+        symbols.forEach(this::rebuildTradeDateIndex);
+        return symbols;
+    }
+
+    @Override
+    public List<String> rebuildTradeDateIndex(String symbol) {
+        var data = data(symbol);
+        synchronized (data) {
+            data.tradeDates = null;
+            log.info("rebuilt trade date index for {} with {} entries", symbol, data.tradeDates().size());
+        }
+        return List.of(symbol);
+    }
+
+    @Override
+    public List<TradeDateIndexEntry> updateTradeDateIndex(PriceHistory history) {
+        if (history.length() == 0) {
+            return List.of();
+        }
+        var from = history.date(0);
+        var to = history.date(history.length() - 1);
+        var data = data(history.getSymbol());
+        synchronized (data) {
+            return data.tradeDates().stream()
+                    .filter(e -> !e.end().isBefore(from) && !e.start().isAfter(to))
+                    .toList();
+        }
+    }
+
+    @Override
+    public List<TradeDateIndexEntry> queryContiguousRegions(String symbol, int gapMins) {
+        var data = data(symbol);
+        synchronized (data) {
+            return contiguousRegions(data.m1, gapMins);
+        }
+    }
+
+    @Override
+    public List<LocalDateTime> queryDayStartTimes(String symbol) {
+        var data = data(symbol);
+        synchronized (data) {
+            long[] times = data.m1.getTimes();
+            List<LocalDateTime> xs = new ArrayList<>();
+            for (int i = 1; i < data.m1.length(); i++) {
+                if (times[i] - times[i - 1] >= 30) {
+                    xs.add(data.m1.date(i));
+                }
+            }
+            return xs;
+        }
+    }
+
+    @Override
+    public List<DayVolume> queryDaysWithVolume(String symbol, double minVol) {
+        var data = data(symbol);
+        synchronized (data) {
+            long[] times = data.m1.getTimes();
+            var volumes = data.m1.getColumn("volume");
+            List<DayVolume> xs = new ArrayList<>();
+            int i = 0;
+            while (i < data.m1.length()) {
+                long day = Math.floorDiv(times[i], 1440L);
+                int count = 0;
+                double volume = 0;
+                for (; i < data.m1.length() && Math.floorDiv(times[i], 1440L) == day; i++) {
+                    count++;
+                    volume += volumes[i];
+                }
+                if (volume >= minVol) {
+                    xs.add(new DayVolume(toMongoDate(LocalDate.ofEpochDay(day)), count, volume));
+                }
+            }
+            return xs;
+        }
+    }
+
+    @Override
+    public void buildAllDaily() {
+        createDailyTimeSeriesCollection(DAILY_COLLECTION, true);
+        createDailyTimeSeriesCollection(DAILY_RTH_COLLECTION, true);
+        for (var symbol : storedSymbols()) {
+            var data = data(symbol);
+            synchronized (data) {
+                var bars = dailyBars(data.m1, 100_000, null);
+                saveDaily(symbol, false, bars.full());
+                saveDaily(symbol, true, bars.rth());
+            }
+        }
+    }
+
+    @Override
+    public void selectiveRebuild(PriceHistory history) {
+        if (UPSERT_M1) {
+            upsertM1(history);
+        } else {
+            appendM1(history);
+        }
+        updateTradeDateIndex(history);
+        rebuildMinVol(history);
+        rebuildDaily(history);
+    }
+
+    @Override
+    public void appendHistory(PriceHistory history) {
+        appendM1(history);
+        updateTradeDateIndex(history);
+        appendMinVol(history);
+        rebuildDaily(history);
+    }
+
+    @Override
+    public void rebuildDaily(PriceHistory history) {
+        var symbol = history.getSymbol();
+        var dates = history.index().entries().stream().map(PriceHistory.IndexEntry::tradeDate).toList();
+        var data = data(symbol);
+        synchronized (data) {
+            var bars = dailyBars(data.m1, 0, new HashSet<>(dates));
+            for (var rthOnly : List.of(false, true)) {
+                var kept = queryDailyBars(symbol, rthOnly).stream().filter(b -> b.date().isBefore(dates.getFirst()));
+                saveDaily(symbol, rthOnly, Stream.concat(kept, (rthOnly ? bars.rth() : bars.full()).stream()).toList());
+            }
+        }
+    }
+
+    /**
+     * daily and rth bars for each trade date of the m1 bars with the same boundaries as the mongo aggregation.
+     * Index entries with the same trade date are combined.
+     */
+    static DailyBars dailyBars(PriceHistory m1, long minVolume, @Nullable Set<LocalDate> tradeDates) {
+        List<DailyBar> full = new ArrayList<>();
+        List<DailyBar> rth = new ArrayList<>();
+        if (m1.length() == 0) {
+            return new DailyBars(full, rth);
+        }
+        var aggregator = m1.new Aggregator();
+        DailyBar day = null;
+        DailyBar rthDay = null;
+        for (var e : m1.index().entries()) {
+            if (tradeDates != null && !tradeDates.contains(e.tradeDate())) {
+                continue;
+            }
+            var bar = dailyBar(e.tradeDate(), aggregator.aggregrate(e.start(), e.end()));
+            var rthBar = e.hasRth() ? dailyBar(e.tradeDate(), aggregator.aggregrate(e.rthStart(), e.rthEnd())) : null;
+            if (day != null && day.date().equals(bar.date())) {
+                day = combine(day, bar);
+                rthDay = rthDay == null ? rthBar : rthBar == null ? rthDay : combine(rthDay, rthBar);
+            } else {
+                addDailyBars(full, rth, day, rthDay, minVolume);
+                day = bar;
+                rthDay = rthBar;
+            }
+        }
+        addDailyBars(full, rth, day, rthDay, minVolume);
+        return new DailyBars(full, rth);
+    }
+
+    private static DailyBar dailyBar(LocalDate date, PriceHistory.Bar b) {
+        return new DailyBar(date, b.open(), b.high(), b.low(), b.close(), (int) b.volume(), b.vwap());
+    }
+
+    private static DailyBar combine(DailyBar a, DailyBar b) {
+        return new DailyBar(a.date(), a.open(), Math.max(a.high(), b.high()), Math.min(a.low(), b.low()), b.close(),
+                a.volume() + b.volume(), b.vwap());
+    }
+
+    private static void addDailyBars(List<DailyBar> full, List<DailyBar> rth, @Nullable DailyBar day, @Nullable DailyBar rthDay, long minVolume) {
+        if (day != null && day.volume() >= minVolume) {
+            full.add(day);
+            if (rthDay != null) {
+                rth.add(rthDay);
+            }
+        }
+    }
+
+    private void saveDaily(String symbol, boolean rth, List<DailyBar> bars) {
+        var h = new PriceHistory(symbol, Math.max(bars.size(), 1), DAILY_COLUMNS);
+        for (int i = 0; i < bars.size(); i++) {
+            var b = bars.get(i);
+            h.getTimes()[i] = PriceHistory.toEpochMinute(b.date().atStartOfDay());
+            h.getColumn("open")[i] = b.open();
+            h.getColumn("high")[i] = b.high();
+            h.getColumn("low")[i] = b.low();
+            h.getColumn("close")[i] = b.close();
+            h.getColumn("volume")[i] = b.volume();
+            h.getColumn("vwap")[i] = b.vwap();
+        }
+        h.setLength(bars.size());
+        var collection = createDirectories(dir.resolve(rth ? DAILY_RTH_COLLECTION : DAILY_COLLECTION));
+        ColumnStore.save(h, ColumnStore.path(collection, symbol));
+    }
+
+    @Override
+    public List<DailyBar> queryDailyBars(String symbol, boolean rth) {
+        var file = ColumnStore.path(dir.resolve(rth ? DAILY_RTH_COLLECTION : DAILY_COLLECTION), symbol);
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        var h = ColumnStore.load(file, 0);
+        var bars = new ArrayList<DailyBar>(h.length());
+        for (int i = 0; i < h.length(); i++) {
+            bars.add(new DailyBar(h.date(i).toLocalDate(), h.getColumn("open")[i], h.getColumn("high")[i],
+                    h.getColumn("low")[i], h.getColumn("close")[i], (int) h.getColumn("volume")[i], h.getColumn("vwap")[i]));
+        }
+        return bars;
+    }
+
+    @Override
+    public List<DailyBar> queryDailyBars(String symbol, LocalDate startInclusive, LocalDate endExclusive, boolean rth) {
+        return queryDailyBars(symbol, rth).stream()
+                .filter(b -> !b.date().isBefore(startInclusive) && b.date().isBefore(endExclusive))
+                .toList();
+    }
+
+    private static List<Path> list(Path segmentDir) {
+        if (!Files.isDirectory(segmentDir)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.list(segmentDir)) {
+            return paths.filter(p -> p.getFileName().toString().endsWith(ColumnStore.EXTENSION))
+                    .sorted(Comparator.comparingInt(LocalTimeSeriesRepository::seq))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int seq(Path segment) {
+        var name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - ColumnStore.EXTENSION.length()));
+    }
+
+    private static Path createDirectories(Path path) {
+        try {
+            return Files.createDirectories(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -6,38 +6,55 @@ import org.apache.logging.log4j.Logger;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serial;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 import static java.lang.Math.max;
 
 public class PriceHistory implements Serializable {
     private static final Logger log = LogManager.getLogger(PriceHistory.class.getSimpleName());
+    static final int DAY_BARS = 1440; // headroom for a day of streamed minute bars
 
     private final String symbol;
     private int size = 0;
     private int max_size = 1024;
-    LocalDateTime[] dates;
-    List<Column> columns = new ArrayList<>();
+    long[] times; // bar start times as epoch minutes, converted to LocalDateTime only when needed
+    // columns in ordinal order, the first five are always open, high, low, close, volume when there is a date column
+    private final List<Column> columns = new ArrayList<>();
+    private transient Map<String, Column> columnsByName = new HashMap<>(); // rebuilt from columns by readObject
     private transient Index index = null;
+    private transient List<Indicator> indicators = null;
 
     PriceHistory(String symbol, int size, String... names) {
         this.symbol = symbol.toLowerCase();
         this.max_size = size;
         for (String name : names) {
             if (name.equals("date")) {
-                dates = new LocalDateTime[max_size];
+                times = new long[max_size];
+            } else if (columnsByName.containsKey(name)) {
+                throw new IllegalArgumentException("duplicate column " + name);
             } else {
-                columns.add(new Column(name, max_size));
+                addColumn(name);
             }
         }
     }
 
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        columnsByName = new HashMap<>();
+        for (var c : columns) {
+            columnsByName.put(c.name, c);
+        }
+    }
+
     int length() {
         return size;
     }
@@ -45,42 +62,176 @@ public class PriceHistory implements Serializable {
     // update actual size used when adding filled columns
     void setLength(int value) {
         size = value;
+        index = null; // rebuilt on next use
     }
 
     void expand() {
-        int sz = max_size * 2;
-        if (dates != null) {
-            var xs = new LocalDateTime[sz];
-            System.arraycopy(dates, 0, xs, 0, max_size);
-            dates = xs;
+        ensureCapacity(max(max_size * 2, 1));
+    }
+
+    /**
+     * grow all columns to hold at least capacity bars. column handles stay valid but arrays previously returned
+     * by getColumn are not, so histories which will be appended to should be created with enough capacity
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= max_size) {
+            return;
+        }
+        log.debug("expand {} from {} to {}", symbol, max_size, capacity);
+        if (times != null) {
+            times = Arrays.copyOf(times, capacity);
         }
-        columns.replaceAll(column -> column.expand(sz));
-        max_size = sz;
+        for (var column : columns) {
+            column.expand(capacity);
+        }
+        max_size = capacity;
     }
 
     public String getSymbol() {
         return symbol;
     }
 
-    public LocalDateTime[] getDates() {
-        return dates;
+    public long[] getTimes() {
+        return times;
+    }
+
+    public LocalDateTime date(int i) {
+        return toLocalDateTime(times[i]);
+    }
+
+    static long toEpochMinute(LocalDateTime dt) {
+        return Math.floorDiv(dt.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    static LocalDateTime toLocalDateTime(long epochMinute) {
+        return LocalDateTime.ofEpochSecond(epochMinute * 60, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * parse the epoch minute from an IB bar time "20230919 23:00:00 Europe/London" without creating any objects.
+     * seconds and the time zone are ignored
+     */
+    static long parseEpochMinute(String s) {
+        int p = 8;
+        while (p < s.length() && s.charAt(p) == ' ') {
+            ++p;
+        }
+        if (p == 8 || p + 5 > s.length() || s.charAt(p + 2) != ':') {
+            throw new IllegalArgumentException("invalid IB time " + s);
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 4, 6);
+        int day = digits(s, 6, 8);
+        int hour = digits(s, p, p + 2);
+        int minute = digits(s, p + 3, p + 5);
+        return epochMinute(year, month, day, hour, minute);
+    }
+
+    /**
+     * epoch minute of a UTC date and time, equivalent to toEpochMinute(LocalDateTime.of(...)) without creating objects
+     */
+    static long epochMinute(int year, int month, int day, int hour, int minute) {
+        // days from civil date, see https://howardhinnant.github.io/date_algorithms.html
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long epochDay = era * 146097L + yoe * 365 + yoe / 4 - yoe / 100 + doy - 719468;
+        return epochDay * 1440 + hour * 60 + minute;
+    }
+
+    private static int digits(String s, int start, int end) {
+        int x = 0;
+        for (int i = start; i < end; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                throw new IllegalArgumentException("invalid IB time " + s);
+            }
+            x = x * 10 + d;
+        }
+        return x;
+    }
+
+    /**
+     * volume of an IB bar as a whole number of contracts, the same value as Decimal.longValue without the
+     * BigDecimal.toBigInteger it creates when the decimal has a scale. An invalid volume is Long.MAX_VALUE
+     */
+    static long ibVolume(com.ib.client.Bar bar) {
+        var v = bar.volume();
+        return v.isValid() ? (long) v.value().doubleValue() : Long.MAX_VALUE;
     }
 
     public double[] getColumn(String name) {
-        var xs = findColumn(name);
-        if (xs == null) {
+        return column(name).values;
+    }
+
+    public double[] findColumn(String name) {
+        var c = lookupColumn(name);
+        return c == null ? null : c.values;
+    }
+
+    /**
+     * the column handle for name. handles stay valid when the history expands so can be resolved once and cached,
+     * but the values array must be re-read from the handle after bars are added
+     */
+    public Column column(String name) {
+        var c = columnsByName.get(name);
+        if (c == null) {
             throw new RuntimeException("column not found " + name);
         }
-        return xs;
+        return c;
     }
 
-    public double[] findColumn(String name) {
-        for (var c : columns) {
-            if (c.name.equals(name)) {
-                return c.values;
+    @Nullable Column lookupColumn(String name) {
+        return columnsByName.get(name);
+    }
+
+    List<Column> columns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * the column with this name, which is added if not already present. an existing column keeps its values
+     */
+    Column addColumn(String name) {
+        return columnsByName.computeIfAbsent(name, k -> {
+            var c = newColumn(k);
+            columns.add(c);
+            return c;
+        });
+    }
+
+    /**
+     * add a calculated column replacing the values of any existing column with the same name, which keeps its
+     * ordinal and handle. An indicator maintaining the existing column is removed as it no longer matches the values
+     */
+    Column putColumn(Column column) {
+        if (column.values.length != max_size) {
+            throw new IllegalArgumentException("lengths do not match " + column.values.length);
+        }
+        var c = addColumn(column.name);
+        if (c != column) {
+            System.arraycopy(column.values, 0, c.values, 0, max_size);
+            if (indicators != null) {
+                indicators.removeIf(e -> e.name.equals(column.name));
             }
         }
-        return null;
+        return c;
+    }
+
+    /**
+     * remove the column and any indicator maintaining it
+     */
+    boolean removeColumn(String name) {
+        var c = columnsByName.remove(name);
+        if (c == null) {
+            return false;
+        }
+        columns.remove(c);
+        if (indicators != null) {
+            indicators.removeIf(e -> e.name.equals(name));
+        }
+        return true;
     }
 
     public double[] setColumnValues(String name, double[] source) {
@@ -93,7 +244,25 @@ public class PriceHistory implements Serializable {
     }
 
     public int find(LocalDateTime target) {
-        return Arrays.binarySearch(dates, target);
+        return find(toEpochMinute(target));
+    }
+
+    /**
+     * index of the bar starting at epoch minute t or (-(insertion point) - 1). bars within a session are one minute
+     * apart so the offset from the last bar is tried before falling back to a binary search
+     */
+    public int find(long t) {
+        if (size == 0) {
+            return -1;
+        }
+        long offset = times[size - 1] - t;
+        if (offset >= 0 && offset < size) {
+            int i = size - 1 - (int) offset;
+            if (times[i] == t) {
+                return i;
+            }
+        }
+        return Arrays.binarySearch(times, 0, size, t);
     }
 
     public int floor(LocalDateTime target) {
@@ -109,8 +278,12 @@ public class PriceHistory implements Serializable {
     }
 
     public PriceHistory insert(int index, LocalDateTime date, double open, double high, double low, double close, double volume) {
+        return insert(index, toEpochMinute(date), open, high, low, close, volume);
+    }
+
+    public PriceHistory insert(int index, long time, double open, double high, double low, double close, double volume) {
         expandIfNecessary(index);
-        dates[index] = date;
+        times[index] = time;
         columns.get(0).values[index] = open;
         columns.get(1).values[index] = high;
         columns.get(2).values[index] = low;
@@ -122,7 +295,7 @@ public class PriceHistory implements Serializable {
 
     public PriceHistory insert(int index, LocalDateTime date, double open, double high, double low, double close, double volume, double vwap) {
         expandIfNecessary(index);
-        dates[index] = date;
+        times[index] = toEpochMinute(date);
         columns.get(0).values[index] = open;
         columns.get(1).values[index] = high;
         columns.get(2).values[index] = low;
@@ -134,8 +307,12 @@ public class PriceHistory implements Serializable {
     }
 
     public PriceHistory insert(int index, LocalDateTime date, double open, double high, double low, double close, double volume, double vwap, double ema) {
+        return insert(index, toEpochMinute(date), open, high, low, close, volume, vwap, ema);
+    }
+
+    public PriceHistory insert(int index, long time, double open, double high, double low, double close, double volume, double vwap, double ema) {
         expandIfNecessary(index);
-        dates[index] = date;
+        times[index] = time;
         columns.get(0).values[index] = open;
         columns.get(1).values[index] = high;
         columns.get(2).values[index] = low;
@@ -151,6 +328,10 @@ public class PriceHistory implements Serializable {
         return insert(size, date, open, high, low, close, volume, vwap, ema);
     }
 
+    public PriceHistory add(long time, double open, double high, double low, double close, double volume, double vwap, double ema) {
+        return insert(size, time, open, high, low, close, volume, vwap, ema);
+    }
+
     public PriceHistory add(LocalDateTime date, double open, double high, double low, double close, double volume, double vwap) {
         return insert(size, date, open, high, low, close, volume, vwap);
     }
@@ -159,9 +340,40 @@ public class PriceHistory implements Serializable {
         return insert(size, date, open, high, low, close, volume);
     }
 
+    /**
+     * add a bar and update all registered indicators for it
+     */
+    public PriceHistory append(LocalDateTime date, double open, double high, double low, double close, double volume) {
+        return append(toEpochMinute(date), open, high, low, close, volume);
+    }
+
+    public PriceHistory append(long time, double open, double high, double low, double close, double volume) {
+        insert(size, time, open, high, low, close, volume);
+        index = null; // rebuilt on next use
+        updateIndicators(size - 1);
+        return this;
+    }
+
+    /**
+     * replace the last bar and update all registered indicators for it
+     */
+    public PriceHistory replaceLast(LocalDateTime date, double open, double high, double low, double close, double volume) {
+        return replaceLast(toEpochMinute(date), open, high, low, close, volume);
+    }
+
+    public PriceHistory replaceLast(long time, double open, double high, double low, double close, double volume) {
+        replace(-1, time, open, high, low, close, volume);
+        updateIndicators(size - 1);
+        return this;
+    }
+
     public PriceHistory replace(int index, LocalDateTime date, double open, double high, double low, double close, double volume) {
+        return replace(index, toEpochMinute(date), open, high, low, close, volume);
+    }
+
+    public PriceHistory replace(int index, long time, double open, double high, double low, double close, double volume) {
         int i = index >= 0 ? index : length() + index;
-        dates[i] = date;
+        times[i] = time;
         columns.get(0).values[i] = open;
         columns.get(1).values[i] = high;
         columns.get(2).values[i] = low;
@@ -172,7 +384,7 @@ public class PriceHistory implements Serializable {
 
     private void expandIfNecessary(int index) {
         if (index >= max_size) {
-            expand();
+            ensureCapacity(max(max_size * 2, index + 1));
         }
     }
 
@@ -201,24 +413,12 @@ public class PriceHistory implements Serializable {
         return c;
     }
 
+    /**
+     * calculate an ema column without adding it. use addIndicator to add an ema which is kept up to date
+     */
     Column ema(String input, String output, int period) {
-        var as = getColumn(input);
         var c = newColumn(output);
-        int i = 0;
-        double total = 0;
-        while (i < period) {
-            total += as[i];
-            i++;
-        }
-        double avg = total / period;
-        Arrays.fill(c.values, 0, i, avg);
-        double w = 2d / (period + 1);
-        double w2 = 1 - w;
-        while (i < length()) {
-            avg = w * as[i] + w2 * avg;
-            c.values[i] = avg;
-            i++;
-        }
+        new Indicator.Ema(output, input, period).compute(this, c.values, 0, length());
         return c;
     }
 
@@ -229,29 +429,7 @@ public class PriceHistory implements Serializable {
      * @return
      */
     Column vwap(String name) {
-        var wap = findColumn("wap");
-        if (wap == null) {
-            wap = average("high", "low", "mid").values;
-        }
-        var vols = getColumn("volume");
-        var c = newColumn(name);
-        double cumVol = 0;
-        double totalPV = 0;
-        var lastDt = dates[0];
-        for (int i = 0; i < length(); i++) {
-            if (ChronoUnit.MINUTES.between(lastDt, dates[i]) >= 30) {
-                cumVol = 0;
-                totalPV = 0;
-            }
-
-            double vol = vols[i];
-            cumVol += vol;
-            totalPV += vol * wap[i];
-            c.values[i] = totalPV / cumVol;
-            lastDt = dates[i];
-        }
-        columns.add(c);
-        return c;
+        return addIndicator(new Indicator.Vwap(name));
     }
 
     /**
@@ -285,73 +463,54 @@ public class PriceHistory implements Serializable {
     }
 
     private Column rollingImpl(String input, int n, String output, boolean isMax) {
-        var nums = getColumn(input);
-        var c = newColumn(output);
-        int[] dq = new int[length()]; // queue holding index of max in window
-        int head = 0;       // head will always point to current max/min in window
-        int tail = 0;       // insertion point
-        int window_trail = 0;
-        for (int i = 0; i < length(); i++) {
-            if (i >= n) {
-                ++window_trail;
-            }
-            double x = nums[i];
-            if (tail > head) {
-                // working from back of q remove items which can never be the max/min
-                int prev = tail - 1;
-                while (prev >= head && (isMax ? x > nums[dq[prev]] : x < nums[dq[prev]])) {
-                    --prev;
-                }
-                tail = prev + 1;
-            }
-            dq[tail++] = i;
-            if (dq[head] < window_trail) {
-                ++head;
-            }
-
-            c.values[i] = nums[dq[head]];
-            // consistency check q must hold decreasing
-//            for (int k = head; k < tail - 2; k++) {
-//                if (nums[dq[k]] > nums[dq[k + 1]]) {
-//                    throw new IllegalStateException("inv dq " + k);
-//                }
-//            }
-        }
-        columns.add(c);
-        return c;
+        return addIndicator(new Indicator.Rolling(output, input, n, isMax));
     }
 
+    /**
+     * count of consecutive prior bars lower (+ve) or higher (-ve) than each bar. 0 if unchanged from prior bar.
+     * the column is kept up to date by append, replaceLast and recalc
+     */
     public Column hilo(String input, String output) {
-        double[] xs = getColumn(input);
-        var c = newColumn(output);
-        columns.add(c);
-        hiloImpl(xs, c.values, 0);
-        return c;
+        return addIndicator(new Indicator.Hilo(output, input));
     }
 
-    public void hiloImpl(double[] xs, double[] out, int start) {
-//        double[] xs = getColumn(input);
-//        var c = newColumn(output);
-//        double[] out = c.values;
-        double last = xs[start];
-        for (int i = start + 1; i < size; i++) {
-            double x = xs[i];
-            if (x > last) {
+    /**
+     * Computes hilo counts using links to the nearest earlier bar >= and <= each bar. Following the links is the same as
+     * popping a monotonic stack (see ArrayUtils.countPrior) so a full pass is O(n). The links only depend on earlier bars
+     * so bars after the last processed or replaced bar can be recomputed without rescanning the history.
+     */
+    static final class HiloCounter {
+        private int[] higher = new int[0]; // index of the nearest earlier bar >= xs[i] or -1
+        private int[] lower = new int[0];  // index of the nearest earlier bar <= xs[i] or -1
+        private int processed = 0;         // links are valid for bars [0, processed)
+
+        /**
+         * recompute out[i] for bars [start, end). bars before start are only visited if they have not been processed
+         */
+        void update(double[] xs, double[] out, int start, int end) {
+            if (higher.length < end) {
+                int sz = Math.max(end, higher.length * 2);
+                higher = Arrays.copyOf(higher, sz);
+                lower = Arrays.copyOf(lower, sz);
+            }
+            for (int i = Math.min(start, processed); i < end; i++) {
+                double x = xs[i];
                 int k = i - 1;
                 while (k >= 0 && xs[k] < x) {
-                    k--;
+                    k = higher[k];
                 }
-                out[i] = i - k - 1;
-            } else if (x < last) {
-                int k = i - 1;
+                higher[i] = k;
+                k = i - 1;
                 while (k >= 0 && xs[k] > x) {
-                    k--;
+                    k = lower[k];
+                }
+                lower[i] = k;
+                if (i >= start) {
+                    double last = i > 0 ? xs[i - 1] : x;
+                    out[i] = x > last ? i - higher[i] - 1 : x < last ? lower[i] + 1 - i : 0;
                 }
-                out[i] = k + 1 - i;
-            } else {
-                out[i] = 0;
             }
-            last = x;
+            processed = end;
         }
     }
 
@@ -362,19 +521,56 @@ public class PriceHistory implements Serializable {
      * @return the column
      */
     public Column strat(String name) {
-        var c = newColumn(name);
-        columns.add(c);
-        double[] values = c.values;
-        var highs = getColumn("high");
-        var lows = getColumn("low");
-        for (int i = 1; i < length(); i++) {
-            int x = highs[i] > highs[i - 1] ? 1 : 0;
-            x += lows[i] < lows[i - 1] ? 2 : 0;
-            values[i] = x;
+        return addIndicator(new Indicator.Strat(name));
+    }
+
+    private List<Indicator> indicators() {
+        if (indicators == null) {
+            indicators = new ArrayList<>();
         }
+        return indicators;
+    }
+
+    /**
+     * register an indicator replacing any with the same name and calculate it for all bars.
+     * the indicator writes to the column with its name which is added if not already present
+     */
+    Column addIndicator(Indicator indicator) {
+        var c = addColumn(indicator.name);
+        indicators().removeIf(e -> e.name.equals(indicator.name));
+        indicators().add(indicator);
+        updateIndicator(indicator, 0);
         return c;
     }
 
+    /**
+     * update all registered indicators after bars from index from onwards have been added or replaced
+     */
+    public void updateIndicators(int from) {
+        if (indicators != null) {
+            for (int i = 0; i < indicators.size(); i++) {
+                updateIndicator(indicators.get(i), from);
+            }
+        }
+    }
+
+    private void updateIndicator(Indicator indicator, int from) {
+        int start = indicator.rewind(from);
+        indicator.compute(this, getColumn(indicator.name), start, size);
+        indicator.processed = size;
+    }
+
+    private @Nullable Indicator findIndicator(String name) {
+        if (indicators != null) {
+            for (var indicator : indicators) {
+                if (indicator.name.equals(name)) {
+                    return indicator;
+                }
+            }
+        }
+        return null;
+    }
+
     private Column newColumn(String output) {
         return new Column(output, max_size);
     }
@@ -388,8 +584,8 @@ public class PriceHistory implements Serializable {
     }
 
     public void info(StringBuilder sb, int i) {
-        if (dates != null) {
-            sb.append(dates[i].toLocalTime());
+        if (times != null) {
+            sb.append(date(i).toLocalTime());
         }
         for (var c : columns) {
             sb.append(String.format(" %.2f", c.values[i]));
@@ -397,18 +593,27 @@ public class PriceHistory implements Serializable {
         sb.append(System.lineSeparator());
     }
 
+    /**
+     * recalculate the hc and lc columns from bar n (negative counts from the end) after bars have been added or replaced
+     */
     public void recalc(int n) {
-        var lows = getColumn("low");
-        var lc = getColumn("lc");
-        hiloImpl(lows, lc, n >= 0 ? n : size + n);
-        var highs = getColumn("high");
-        var hc = getColumn("hc");
-        hiloImpl(highs, hc, n >= 0 ? n : size + n);
+        int start = n >= 0 ? n : size + n;
+        recalcHilo("low", "lc", start);
+        recalcHilo("high", "hc", start);
+    }
+
+    private void recalcHilo(String input, String output, int start) {
+        var indicator = findIndicator(output);
+        if (indicator == null) {
+            addIndicator(new Indicator.Hilo(output, input));
+        } else {
+            updateIndicator(indicator, start);
+        }
     }
 
     public void addStandardColumns() {
         vwap("vwap");
-        columns.add(ema("close", "ema", 87));
+        addIndicator(new Indicator.Ema("ema", "close", 87));
         strat("strat");
     }
 
@@ -454,22 +659,19 @@ public class PriceHistory implements Serializable {
     }
 
     /**
-     * standardize the values of the input column
+     * standardize the values of the input column over a trailing window using the population std.
+     * bars before the first full window and bars in a constant window are 0
      */
     Column rolling_standardize(String input, int window, String output) {
         var values = getColumn(input);
         var c = newColumn(output);
-        var xs = c.values;
-        for (int i = 0; i < length() - window + 1; i++) {
-            var ys = standardize(values, i, i + window);
-            xs[i + window - 1] = ys[window - 1];
-        }
+        ArrayUtils.rollingZScore(values, 0, length(), window, 0, c.values, 0);
         return c;
     }
 
     public static class Column implements Serializable {
         final String name;
-        final double[] values;
+        double[] values;
 
         public Column(String name, int size) {
             this.name = name;
@@ -481,10 +683,8 @@ public class PriceHistory implements Serializable {
             this.values = values;
         }
 
-        public Column expand(int newLength) {
-            var xs = new double[newLength];
-            System.arraycopy(values, 0, xs, 0, values.length);
-            return new Column(name, xs);
+        void expand(int newLength) {
+            values = Arrays.copyOf(values, newLength);
         }
 
         @Override
@@ -500,7 +700,8 @@ public class PriceHistory implements Serializable {
     }
 
     public Bar bar(int i) {
-        return new Bar(dates[i], dates[i].plusMinutes(1),
+        var start = date(i);
+        return new Bar(start, start.plusMinutes(1),
                 columns.get(0).values[i],
                 columns.get(1).values[i],
                 columns.get(2).values[i],
@@ -525,30 +726,41 @@ public class PriceHistory implements Serializable {
     }
 
     public Bar aggregrate(int start, int inclusiveEnd) {
-        int s = start >= 0 ? start : length() + start;
-        int e = inclusiveEnd >= 0 ? Math.min(inclusiveEnd, length() - 1) : length() + inclusiveEnd;
-        if (start > e) {
-            throw new IllegalArgumentException("Invalid array bounds " + start + " " + inclusiveEnd);
-        }
-//        var dates = hist.getDates();
-        var opens = getColumn("open");
-        var highs = getColumn("high");
-        var lows = getColumn("low");
-        var closes = getColumn("close");
-        var volumes = getColumn("volume");
-        var vwaps = getColumn("vwap");
-        var emas = findColumn("ema");
-        double high = -1e6;
-        double low = 1e6;
-        double vol = 0;
-        for (int i = s; i <= e; i++) {
-            high = max(highs[i], high);
-            low = Math.min(lows[i], low);
-            vol += volumes[i];
+        return new Aggregator().aggregrate(start, inclusiveEnd);
+    }
+
+    /**
+     * aggregrates ranges of bars with the columns resolved once, for callers which aggregrate many ranges
+     */
+    final class Aggregator {
+        private final double[] opens = getColumn("open");
+        private final double[] highs = getColumn("high");
+        private final double[] lows = getColumn("low");
+        private final double[] closes = getColumn("close");
+        private final double[] volumes = getColumn("volume");
+        private final double[] vwaps = getColumn("vwap");
+        private final double[] emas = findColumn("ema"); // null if there is no ema column
+
+        Bar aggregrate(int start, int inclusiveEnd) {
+            int s = start >= 0 ? start : length() + start;
+            int e = inclusiveEnd >= 0 ? Math.min(inclusiveEnd, length() - 1) : length() + inclusiveEnd;
+            if (start > e) {
+                throw new IllegalArgumentException("Invalid array bounds " + start + " " + inclusiveEnd);
+            }
+            double high = -1e6;
+            double low = 1e6;
+            double vol = 0;
+            for (int i = s; i <= e; i++) {
+                high = max(highs[i], high);
+                low = Math.min(lows[i], low);
+                vol += volumes[i];
+            }
+            var startTm = date(s);
+            var endTm = toLocalDateTime(times[e] + 1);
+            return emas == null
+                    ? new Bar(startTm, endTm, opens[s], high, low, closes[e], vol, vwaps[e])
+                    : new Bar(startTm, endTm, opens[s], high, low, closes[e], vol, vwaps[e], emas[e]);
         }
-        return emas == null
-                ? new Bar(dates[s], dates[e].plusMinutes(1), opens[s], high, low, closes[e], vol, vwaps[e])
-                : new Bar(dates[s], dates[e].plusMinutes(1), opens[s], high, low, closes[e], vol, vwaps[e], emas[e]);
     }
 
     public Bar aggregrateDaily(IndexEntry e) {
@@ -596,30 +808,50 @@ public class PriceHistory implements Serializable {
     }
 
     List<Bar> dailyBars() {
-        return index().indexEntries.stream().map(PriceHistory.this::aggregrateDaily).toList();
+        var aggregator = new Aggregator();
+        return index().indexEntries.stream().map(e -> aggregator.aggregrate(e.start(), e.end())).toList();
     }
 
     List<Bar> rthBars() {
         // use mapMulti rather than map index -> Optional<Bar> then filter empty -> then map to extract threshold
         // note either explicit types on lambda required or add type to mapMulti
+        var aggregator = new Aggregator();
         return index().indexEntries.stream()
                 .<Bar>mapMulti((e, consumer) -> {
-                    var b = aggregrateRth(e);
-                    if (b != null) consumer.accept(b);
+                    if (e.hasRth() && e.isComplete()) consumer.accept(aggregator.aggregrate(e.rthStart(), e.rthEnd()));
                 })
                 .toList();
     }
 
     List<Bar> minVolBars(double minVol) {
+        return minVolBars(minVol, 0);
+    }
+
+    /**
+     * bars of at least minVol volume starting at bar from, which must be the first bar of a min vol bar.
+     * A bar also ends at the last bar before eu open, before rth open and of each session. The end of the history
+     * is always the end of a session so the last bar is partial when the history ends part way through a bar,
+     * building should then resume from the start of that bar when more bars are available.
+     */
+    List<Bar> minVolBars(double minVol, int from) {
         var vols = getColumn("volume");
+        var aggregator = new Aggregator();
         var lastBars = lastBars();
+        int next = 0; // cursor into lastBars
+        while (next < lastBars.length && lastBars[next] < from) {
+            next++;
+        }
         double v = 0;
-        int start = 0;
+        int start = from;
         List<Bar> bars = new ArrayList<>();
-        for (int i = 0; i < length(); i++) {
+        for (int i = from; i < length(); i++) {
             v += vols[i];
-            if (isLastBar(i, lastBars) || v >= minVol) {
-                bars.add(aggregrate(start, i));
+            boolean isLastBar = next < lastBars.length && lastBars[next] == i;
+            if (isLastBar) {
+                next++;
+            }
+            if (isLastBar || v >= minVol) {
+                bars.add(aggregator.aggregrate(start, i));
                 start = i + 1;
                 v = 0;
             }
@@ -628,41 +860,32 @@ public class PriceHistory implements Serializable {
     }
 
     /**
-     * Remove head of q if it matches i
-     *
-     * @return true if i was the head of the queue
+     * ascending distinct indexes of the last bar before eu open, before rth open and of each session
      */
-    private boolean isLastBar(int i, Queue<Integer> lastBars) {
-        boolean f = !lastBars.isEmpty() && i == lastBars.peek();
-        if (f) {
-            lastBars.remove();
-        }
-        return f;
-    }
-
-    Queue<Integer> lastBars() {
-        Queue<Integer> q = new ArrayDeque<>();
-        for (IndexEntry entry : index().indexEntries) {
-            int i = entry.euStart() - 1;
-            if (i > 0) q.add(i);
-            i = entry.euEnd();
-            if (i > 0) q.add(i);
-            i = entry.end();
-            if (i > 0) q.add(i);
+    int[] lastBars() {
+        var entries = index().indexEntries;
+        var idx = new int[entries.size() * 3];
+        int c = 0;
+        for (IndexEntry entry : entries) {
+            for (int i : new int[]{entry.euStart() - 1, entry.euEnd(), entry.end()}) {
+                if (i > 0 && (c == 0 || i > idx[c - 1])) {
+                    idx[c++] = i;
+                }
+            }
         }
-        return q;
+        return Arrays.copyOf(idx, c);
     }
 
     int[] firstBars(int minGap) {
         var idx = new int[128];
         int c = 0;
-        LocalDateTime last = null;
         for (int i = 0; i < length(); i++) {
-            var date = dates[i];
-            if (last == null || ChronoUnit.MINUTES.between(last, date) > minGap) {
+            if (i == 0 || times[i] - times[i - 1] > minGap) {
+                if (c == idx.length) {
+                    idx = Arrays.copyOf(idx, c * 2);
+                }
                 idx[c++] = i;
             }
-            last = date;
         }
         return Arrays.copyOf(idx, c);
     }
@@ -708,7 +931,6 @@ public class PriceHistory implements Serializable {
         end = Math.min(end, length());
         var sb = new StringBuilder();
         sb.append("time  open    high    low     close     vol nvol   vwap  ema  tics st chi clo (op vp ema)").append(System.lineSeparator());
-        var dates = getDates();
         var opens = getColumn("open");
         var highs = getColumn("high");
         var lows = getColumn("low");
@@ -728,7 +950,7 @@ public class PriceHistory implements Serializable {
         double prevLo = lows[start];
         for (int i = start; i < end; i++) {
             if (vwaps == null) {
-                sb.append("%s %.2f %.2f %.2f %.2f %.0f".formatted(dates[i].toLocalTime(), opens[i], highs[i], lows[i], closes[i], volumes[i])).append(System.lineSeparator());
+                sb.append("%s %.2f %.2f %.2f %.2f %.0f".formatted(date(i).toLocalTime(), opens[i], highs[i], lows[i], closes[i], volumes[i])).append(System.lineSeparator());
             } else {
                 String ind = "";
                 if (highs[i] == highStats.max()) {
@@ -742,7 +964,7 @@ public class PriceHistory implements Serializable {
                 int idxOpen = max(day.euStart(), day.rthStart());
                 double sessionOpen = opens[idxOpen];
                 sb.append(("%s %.2f [green,%d]%.2f[/] [red,%d]%.2f[/] [cyan]%.2f[/] [yellow,%d]%5.0f[/] [yellow,%d]%4.0f[/] %.2f %.2f %2.0f %s [green,%d]%3d[/] [red,%d]%3d[/] %s%s%s%s").formatted(
-                                dates[i].toLocalTime(),
+                                date(i).toLocalTime(),
                                 opens[i],
                                 highs[i] > prevHi ? 1 : 0, highs[i],
                                 lows[i] < prevLo ? 1 : 0, lows[i],
@@ -778,12 +1000,12 @@ public class PriceHistory implements Serializable {
 
     @Override
     public String toString() {
-        return dates == null
+        return times == null
                 ? "PriceHistory[symbol=" + symbol + ", size=" + length() + "]"
                 : "PriceHistory[symbol=" + symbol +
                 ", size=" + length() +
-                ", from=" + dates[0] +
-                ", to=" + dates[length() - 1] + "]";
+                ", from=" + date(0) +
+                ", to=" + date(length() - 1) + "]";
     }
 
     static String trendInd(double x, double y) {
@@ -791,11 +1013,9 @@ public class PriceHistory implements Serializable {
     }
 
     public static PriceHistory createFromIBBars(String symbol, List<com.ib.client.Bar> bars) {
-        PriceHistory priceHistory = new PriceHistory(symbol, bars.size(), "date", "open", "high", "low", "close", "volume");
+        PriceHistory priceHistory = new PriceHistory(symbol, bars.size() + DAY_BARS, "date", "open", "high", "low", "close", "volume");
         for (com.ib.client.Bar bar : bars) {
-            var dateParts = bar.time().split(" ");
-            priceHistory.add(LocalDateTime.of(LocalDate.parse(dateParts[0], DateTimeFormatter.BASIC_ISO_DATE), LocalTime.parse(dateParts[1])),
-                    bar.open(), bar.high(), bar.low(), bar.close(), bar.volume().longValue());
+            priceHistory.insert(priceHistory.length(), parseEpochMinute(bar.time()), bar.open(), bar.high(), bar.low(), bar.close(), ibVolume(bar));
         }
         return priceHistory;
     }
@@ -804,22 +1024,21 @@ public class PriceHistory implements Serializable {
     public class Index {
         List<PriceHistory.IndexEntry> indexEntries = new ArrayList<>();
 
-        private Index() {
-            LocalDateTime[] dates = PriceHistory.this.getDates();
+        Index() {
             var starts = PriceHistory.this.firstBars(1);
             var ends = PriceHistory.this.lastBars(starts);
             for (int i = 0; i < starts.length; i++) {
-                indexEntries.add(createIndexEntry(dates, starts[i], ends[i]));
+                indexEntries.add(createIndexEntry(starts[i], ends[i]));
             }
         }
 
-        private IndexEntry createIndexEntry(LocalDateTime[] dates, int start, int endInclusive) {
+        private IndexEntry createIndexEntry(int start, int endInclusive) {
             // eu start +9:00 +540 rth start +15:30 +930 from glbx open of 23:00
             int euStart = start + 540 < endInclusive ? start + 540 : -1;
             int rthStart = start + 930 < endInclusive ? start + 930 : -1;
             int rthEnd = rthStart > 0 ? Math.min(start + 1319, endInclusive) : -1;
             return new IndexEntry(
-                    rthStart > 0 ? dates[rthStart].toLocalDate() : dates[start].toLocalDate().plusDays(1),
+                    rthStart > 0 ? date(rthStart).toLocalDate() : date(start).toLocalDate().plusDays(1),
                     start,
                     endInclusive,
                     euStart,
@@ -839,34 +1058,35 @@ public class PriceHistory implements Serializable {
 
         public NavigableMap<Long, String> makeMessagesMap(IndexEntry idx, IndexEntry prev) {
             NavigableMap<Long, String> priceMessages = new TreeMap<>();
+            var aggregator = new Aggregator();
 
-            var b = aggregrate(idx.start(), idx.end());
+            var b = aggregator.aggregrate(idx.start(), idx.end());
             putMessage(priceMessages, b.open(), "glbx open");
             putMessage(priceMessages, b.close(), "[yellow]last (" + b.end().format(DateTimeFormatter.ofPattern("HH:mm")) + ")[/]");
             var c = PriceHistory.this.getColumn("vwap");
             putMessage(priceMessages, c[idx.end()], "vwap");
 
-            var glbx = aggregrate(idx.start(), idx.euEnd());
+            var glbx = aggregator.aggregrate(idx.start(), idx.euEnd());
             putMessage(priceMessages, glbx.high(), "glbx hi");
             putMessage(priceMessages, glbx.low(), "glbx lo");
 
             if (idx.hasEU()) {
-                var eu = aggregrate(idx.euStart(), idx.euEnd());
+                var eu = aggregator.aggregrate(idx.euStart(), idx.euEnd());
                 putMessage(priceMessages, eu.open(), "eu open");
             }
 
             if (idx.hasRth()) {
-                var rth = aggregrate(idx.rthStart(), idx.rthEnd());
+                var rth = aggregator.aggregrate(idx.rthStart(), idx.rthEnd());
                 putMessage(priceMessages, rth.open(), "[green]open[/]");
                 putMessage(priceMessages, rth.high(), "[cyan]high[/]");
                 putMessage(priceMessages, rth.low(), "[red]low[/]");
-                var rthFirstHour = aggregrate(idx.rthStart(), idx.rthStart() + 59);
+                var rthFirstHour = aggregator.aggregrate(idx.rthStart(), idx.rthStart() + 59);
                 putMessage(priceMessages, rthFirstHour.high(), "H1 hi");
                 putMessage(priceMessages, rthFirstHour.low(), "H1 lo");
             }
 
             if (prev != null && prev.hasRth()) {
-                var rth = aggregrate(prev.rthStart(), prev.rthEnd());
+                var rth = aggregator.aggregrate(prev.rthStart(), prev.rthEnd());
                 putMessage(priceMessages, rth.high(), "[cyan]yh[/]");
                 putMessage(priceMessages, rth.low(), "[red]yl[/]");
                 putMessage(priceMessages, rth.close(), "yc");
@@ -890,7 +1110,7 @@ public class PriceHistory implements Serializable {
             if (!e.isComplete) {
                 throw new IllegalStateException("Index does not have rth start " + e);
             }
-            return PriceHistory.this.getDates()[e.rthStart].toLocalDate();
+            return date(e.rthStart).toLocalDate();
         }
     }
 
@@ -0,0 +1,175 @@
+package ibhist;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import ibhist.TimeSeriesRepository.TradeDateIndexEntry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-through cache of m1 bars held as one PriceHistory slice per symbol and trade date. A requested range
+ * is assembled from the cached days, any runs of missing days are loaded with one query per run and split
+ * into days. Eviction is least recently used bounded by the bytes held in the time and value columns.
+ * Days are keyed on the bar count of their trade_date_index entry so a day that has grown since it was
+ * cached is reloaded.
+ */
+class PriceHistoryCache {
+    private static final Logger log = LogManager.getLogger(PriceHistoryCache.class.getSimpleName());
+    // maximum bytes of cached columns, override with -Dibhist.cacheBytes=n
+    static final long DEFAULT_MAX_BYTES = Long.getLong("ibhist.cacheBytes", 256L << 20);
+    private final Cache<DayKey, PriceHistory> days;
+
+    record DayKey(String symbol, LocalDate date, long bars) {
+    }
+
+    /**
+     * loads all bars between [start, end] inclusive covering the given trade date entries
+     */
+    @FunctionalInterface
+    interface Loader {
+        PriceHistory load(String symbol, List<TradeDateIndexEntry> entries, LocalDateTime start, LocalDateTime end);
+    }
+
+    PriceHistoryCache(long maxBytes) {
+        days = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((DayKey k, PriceHistory v) -> weight(v))
+                .recordStats()
+                .build();
+    }
+
+    static int weight(PriceHistory history) {
+        return history.length() * Long.BYTES * (history.columns().size() + 1);
+    }
+
+    /**
+     * return a new history for the trade date entries, which must be consecutive entries of the symbol index.
+     * When rthOnly the first day starts at its rth start and the last day ends at its rth end.
+     */
+    PriceHistory get(String symbol, List<TradeDateIndexEntry> entries, boolean rthOnly, Loader loader) {
+        var slices = new ArrayList<PriceHistory>(entries.size());
+        int loaded = 0;
+        for (int i = 0; i < entries.size(); ) {
+            var cached = days.getIfPresent(key(symbol, entries.get(i)));
+            if (cached != null) {
+                slices.add(cached);
+                i++;
+                continue;
+            }
+            int j = i + 1;
+            while (j < entries.size() && days.getIfPresent(key(symbol, entries.get(j))) == null) {
+                j++;
+            }
+            var run = entries.subList(i, j);
+            var history = loader.load(symbol, run, run.getFirst().start(), run.getLast().end());
+            for (var e : run) {
+                var day = slice(history, lowerBound(history, e.start()), upperBound(history, e.end()));
+                days.put(key(symbol, e), day);
+                slices.add(day);
+            }
+            loaded += run.size();
+            i = j;
+        }
+        log.info("{} days {} loaded {} cached {}", symbol, entries.size(), loaded, entries.size() - loaded);
+
+        var first = slices.getFirst();
+        var last = slices.getLast();
+        int firstStart = rthOnly && hasRth(entries.getFirst()) ? lowerBound(first, entries.getFirst().rthStart()) : 0;
+        int lastEnd = rthOnly && hasRth(entries.getLast()) ? upperBound(last, entries.getLast().rthEnd()) : last.length();
+        int rows = slices.stream().mapToInt(PriceHistory::length).sum();
+        var result = new PriceHistory(symbol, rows + PriceHistory.DAY_BARS, names(first));
+        for (int i = 0; i < slices.size(); i++) {
+            var s = slices.get(i);
+            copyRows(s, i == 0 ? firstStart : 0, i == slices.size() - 1 ? lastEnd : s.length(), result);
+        }
+        return result;
+    }
+
+    void invalidate(String symbol) {
+        days.asMap().keySet().removeIf(k -> k.symbol().equals(symbol));
+    }
+
+    void invalidateAll() {
+        days.invalidateAll();
+    }
+
+    long bytes() {
+        return days.asMap().values().stream().mapToLong(PriceHistoryCache::weight).sum();
+    }
+
+    String stats() {
+        return days.stats().toString();
+    }
+
+    private static DayKey key(String symbol, TradeDateIndexEntry e) {
+        return new DayKey(symbol, e.date(), e.bars());
+    }
+
+    private static boolean hasRth(TradeDateIndexEntry e) {
+        return !e.rthStart().equals(LocalDateTime.MIN);
+    }
+
+    /**
+     * copy rows [from, to) of src to the end of dst, the histories must have the same columns
+     */
+    static void copyRows(PriceHistory src, int from, int to, PriceHistory dst) {
+        int n = to - from;
+        if (n <= 0) {
+            return;
+        }
+        int at = dst.length();
+        dst.ensureCapacity(at + n);
+        System.arraycopy(src.getTimes(), from, dst.getTimes(), at, n);
+        for (var c : dst.columns()) {
+            System.arraycopy(src.getColumn(c.name), from, c.values, at, n);
+        }
+        dst.setLength(at + n);
+    }
+
+    private static PriceHistory slice(PriceHistory src, int from, int to) {
+        var day = new PriceHistory(src.getSymbol(), Math.max(to - from, 1), names(src));
+        copyRows(src, from, to, day);
+        return day;
+    }
+
+    private static String[] names(PriceHistory history) {
+        var columns = history.columns();
+        var names = new String[columns.size() + 1];
+        names[0] = "date";
+        for (int i = 0; i < columns.size(); i++) {
+            names[i + 1] = columns.get(i).name;
+        }
+        return names;
+    }
+
+    /**
+     * @return index of the first bar at or after dt
+     */
+    private static int lowerBound(PriceHistory history, LocalDateTime dt) {
+        long t = PriceHistory.toEpochMinute(dt);
+        long[] times = history.getTimes();
+        int lo = 0;
+        int hi = history.length();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return index after the last bar at or before dt
+     */
+    private static int upperBound(PriceHistory history, LocalDateTime dt) {
+        return lowerBound(history, dt.plusMinutes(1));
+    }
+}
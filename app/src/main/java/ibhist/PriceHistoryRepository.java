@@ -25,4 +25,12 @@ public interface PriceHistoryRepository {
      * @return
      */
     Path saveCsv(String symbol, LocalDate startDate, String csvContent);
+
+    /**
+     * saves the bars of a completed request in the same format and location as saveCsv(symbol, startDate, csvContent).
+     * Implementations should stream the bars with action.writeCsv(file) rather than build the content in memory
+     */
+    default Path saveCsv(String symbol, LocalDate startDate, HistoricalDataAction action) {
+        return saveCsv(symbol, startDate, action.barsAsCsv());
+    }
 }
\ No newline at end of file
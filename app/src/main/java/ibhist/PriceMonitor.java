@@ -1,21 +1,26 @@
 package ibhist;
 
 import java.util.Objects;
-import java.util.function.Consumer;
 import java.util.function.DoublePredicate;
 
 import static ibhist.ChangeState.*;
 
 /**
- * PriceMonitor fires events while pred true provided at least threshold number of events
+ * PriceMonitor fires events while pred true provided at least threshold number of events. The state and price
+ * are passed to the listener as they are so a tick inside a zone does not create an event object.
  */
 public class PriceMonitor implements DoublePredicate {
     protected final MonitorManager.MonitorData data;
-    protected final Consumer<PriceEvent> listener;
+    protected final Listener listener;
     private int count = 0;
     private boolean isInside = false;
 
-    PriceMonitor(MonitorManager.MonitorData data, Consumer<PriceEvent> listener) {
+    @FunctionalInterface
+    public interface Listener {
+        void onEvent(ChangeState state, double price);
+    }
+
+    PriceMonitor(MonitorManager.MonitorData data, Listener listener) {
         this.data = data;
         this.listener = Objects.requireNonNull(listener);
     }
@@ -39,6 +44,6 @@ public class PriceMonitor implements DoublePredicate {
     }
 
     protected void fireEvent(ChangeState state, double f) {
-        listener.accept(new PriceEvent(state, f));
+        listener.onEvent(state, f);
     }
 }
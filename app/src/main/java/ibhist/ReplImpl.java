@@ -121,7 +121,7 @@ public class ReplImpl implements Repl {
                 history = action.asPriceHistory();
                 print(history.toString());
                 print(history.intradayPriceInfo(-1));
-                priceHistoryRepo.saveCsv(action.getSymbol(), history.indexEntry(0).tradeDate(), action.barsAsCsv());
+                priceHistoryRepo.saveCsv(action.getSymbol(), history.indexEntry(0).tradeDate(), action);
                 history.addStandardColumns();
                 timeSeriesRepo.selectiveRebuild(history);
                 yield true;
@@ -137,7 +137,9 @@ public class ReplImpl implements Repl {
                             var action = connector.waitForHistoricalData();
                             history = action.asPriceHistory();
                             print(history.toString());
-                            priceHistoryRepo.saveCsv(action.getSymbol(), history.indexEntry(0).tradeDate(), action.barsAsCsv());
+                            priceHistoryRepo.saveCsv(action.getSymbol(), history.indexEntry(0).tradeDate(), action);
+                            history.addStandardColumns();
+                            timeSeriesRepo.appendHistory(history);
                         });
                 yield true;
             }
@@ -25,12 +25,34 @@ public interface TimeSeriesRepository {
      */
     int appendM1(PriceHistory history);
 
+    /**
+     * Write all bars of the history to m1 replacing any existing bar with the same symbol and timestamp.
+     * Safe to retry or to run concurrently for different histories. On MongoDB each bar is a single document
+     * upsert, which unpacks a bucket of the m1 time series collection and needs a server that supports upserts
+     * on time series collections, so selectiveRebuild only uses it when run with -Dibhist.upsertM1=true
+     *
+     * @return number of bars inserted or changed
+     */
+    int upsertM1(PriceHistory history);
+
     /**
      * selectively rebuild the minvol timeseries of a symbol from the beginning of the price history
      * @param history
+     * @return time of the first rebuilt bar
      */
     LocalDateTime rebuildMinVol(PriceHistory history);
 
+    /**
+     * extend the minvol timeseries of a symbol with a history that continues the stored bars, e.g. bars streamed
+     * since the last save. Only the last stored bar, which may have been incomplete, and the bars after it are
+     * rebuilt so changes to earlier bars of the history are not picked up, use rebuildMinVol for that. When the
+     * history starts after the last stored bar they are rebuilt from the stored m1 session holding that bar, so the
+     * history must already be in m1 and the trade date index as appendHistory does. If the last stored bar is not
+     * found this is the same as rebuildMinVol.
+     * @return time of the first rebuilt bar
+     */
+    LocalDateTime appendMinVol(PriceHistory history);
+
     /**
      * create a PriceHistory covering inclusive trade dates.
      */
@@ -58,6 +80,13 @@ public interface TimeSeriesRepository {
      */
     List<String> rebuildTradeDateIndex(String symbol);
 
+    /**
+     * update only the trade_date_index rows of the sessions covered by the history, e.g. after it has been
+     * written to m1
+     * @return the entries written
+     */
+    List<TradeDateIndexEntry> updateTradeDateIndex(PriceHistory history);
+
     List<TradeDateIndexEntry> queryContiguousRegions(String symbol, int gapMins);
 
     List<LocalDateTime> queryDayStartTimes(String symbol);
@@ -70,11 +99,18 @@ public interface TimeSeriesRepository {
     void buildAllDaily();
 
     /**
-     * Rebuilds m1, trade-date-index, min-vol and daily timeseries for the symbol and time period
+     * Rebuilds m1, trade-date-index, min-vol and daily timeseries for the symbol and time period. m1 is written
+     * with appendM1, or upsertM1 with -Dibhist.upsertM1=true
      * @param history
      */
     void selectiveRebuild(PriceHistory history);
 
+    /**
+     * Append a history that continues the stored bars, e.g. bars streamed since the last save. m1 is written with
+     * appendM1, then the trade date index, min-vol bars from the last stored bar and daily bars are updated
+     */
+    void appendHistory(PriceHistory history);
+
     /**
      * Selectively update daily and dailyRTH time series from the m1 data for all trade dates in the price history
      */
@@ -15,18 +15,32 @@ import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.InsertManyResult;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonReader;
+import org.bson.BsonString;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
 import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.codecs.pojo.PojoCodecProvider;
 import org.bson.codecs.pojo.annotations.BsonId;
 import org.bson.conversions.Bson;
 import org.jetbrains.annotations.Nullable;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.*;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
@@ -43,14 +57,34 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
     public static final String TRADE_DATE_INDEX_COLLECTION = "trade_date_index";
     public static final String DAILY_COLLECTION = "daily";
     public static final String DAILY_RTH_COLLECTION = "dailyRth";
+    public static final String SYMBOLS_COLLECTION = "symbols"; // catalog of m1 symbols maintained on write
     private static final Logger log = LogManager.getLogger(TimeSeriesRepositoryImpl.class.getSimpleName());
     static final ZoneOffset UTC = ZoneOffset.UTC;
+    // maximum number of symbols rebuilt concurrently, override with -Dibhist.parallelism=n
+    static final int DEFAULT_PARALLELISM = Integer.getInteger("ibhist.parallelism", 4);
+    static final int TAIL_BATCH_SIZE = 100; // stored bars fetched at a time when checking for a stale tail
+    static final int WRITE_BATCH_SIZE = 5000; // documents per insertMany or bulkWrite call
+    // selectiveRebuild writes m1 with upsertM1 instead of appendM1 when run with -Dibhist.upsertM1=true
+    static final boolean UPSERT_M1 = Boolean.getBoolean("ibhist.upsertM1");
+    static final int READ_BATCH_SIZE = 10_000; // m1 documents per cursor batch when loading a history
+    static final int TRADE_DATE_GAP_MINS = 30; // gap in m1 bars that starts a new trade_date_index region
+    private static final Bson M1_LOAD_FIELDS = Projections.fields(
+            Projections.include("timestamp", "open", "high", "low", "close", "volume", "vwap", "ema"),
+            Projections.excludeId());
     private final Supplier<MongoClient> client;
     private final Supplier<MongoDatabase> db;
+    private int parallelism = DEFAULT_PARALLELISM;
+    // trade_date_index entries by symbol, replaced when the index for the symbol is rebuilt
+    private final Map<String, TradeDates> tradeDatesCache = new ConcurrentHashMap<>();
+    private final PriceHistoryCache historyCache = new PriceHistoryCache(PriceHistoryCache.DEFAULT_MAX_BYTES);
 
     public TimeSeriesRepositoryImpl() {
+        this(DATABASE_NAME);
+    }
+
+    TimeSeriesRepositoryImpl(String databaseName) {
         client = Suppliers.memoize(this::createClient);
-        db = Suppliers.memoize(() -> client.get().getDatabase(DATABASE_NAME));
+        db = Suppliers.memoize(() -> client.get().getDatabase(databaseName));
     }
 
     MongoClient createClient() {
@@ -60,6 +94,57 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
         return MongoClients.create(settings);
     }
 
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * run the action for each symbol on virtual threads with at most parallelism symbols in progress. a failure is
+     * logged and does not stop the other symbols
+     *
+     * @return the symbols which completed successfully in their original order
+     */
+    List<String> forEachSymbol(String task, List<String> symbols, Consumer<String> action) {
+        var permits = new Semaphore(parallelism);
+        var done = new AtomicInteger();
+        Set<String> failed = ConcurrentHashMap.newKeySet();
+        long start = System.nanoTime();
+        log.info("{} started for {} symbols parallelism {}", task, symbols.size(), parallelism);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var symbol : symbols) {
+                executor.execute(() -> {
+                    try {
+                        permits.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failed.add(symbol);
+                        return;
+                    }
+                    long t = System.nanoTime();
+                    try {
+                        action.accept(symbol);
+                        log.info("{} {} completed in {} ms ({}/{})", task, symbol, elapsedMillis(t), done.incrementAndGet(), symbols.size());
+                    } catch (RuntimeException e) {
+                        failed.add(symbol);
+                        log.error("{} {} failed after {} ms", task, symbol, elapsedMillis(t), e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+        var completed = symbols.stream().filter(s -> !failed.contains(s)).toList();
+        log.info("{} completed {} of {} symbols in {} ms failed {}", task, completed.size(), symbols.size(), elapsedMillis(start), failed);
+        return completed;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
     private MongoCollection<Document> getCollection(String name) {
         return db.get().getCollection(name);
     }
@@ -83,6 +168,9 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
     @Override
     public void createM1TimeSeriesCollection(String name, boolean dropExisting) {
         dropCollectionIfRequested(name, dropExisting);
+        if (name.equals(M1_COLLECTION)) {
+            dropCollectionIfRequested(SYMBOLS_COLLECTION, dropExisting);
+        }
         var options = new TimeSeriesOptions("timestamp")
                 .granularity(TimeSeriesGranularity.MINUTES)
                 .metaField("symbol");
@@ -129,15 +217,17 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
         return LocalDateTime.ofInstant(dt.toInstant().truncatedTo(ChronoUnit.SECONDS), UTC);
     }
 
-    private static int getNumberInserted(Optional<InsertManyResult> r) {
-        return r.map(e -> e.getInsertedIds().size()).orElse(0);
-    }
-
     @Override
     public void insertM1(PriceHistory history) {
         log.info("from {}", history);
-        var imr = insertM1(getCollection(M1_COLLECTION), history);
-        log.info("inserted {} documents into m1", getNumberInserted(imr));
+        int n = insertM1(getCollection(M1_COLLECTION), history);
+        log.info("inserted {} documents into m1", n);
+    }
+
+    @Override
+    public int upsertM1(PriceHistory history) {
+        log.info("upserting into mongodb.futures.m1 {}", history);
+        return upsertM1(getCollection(M1_COLLECTION), history);
     }
 
     @Override
@@ -155,33 +245,59 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
             var collection = getCollection(M1_COLLECTION);
             LocalDateTime last = removeExistingWithDifferentVol(collection, history);
             log.info("inserting rows after {}", last);
-            var imr = insertM1(collection, history, last);
-            log.info("inserted documents {}", getNumberInserted(imr));
-            return getNumberInserted(imr);
+            int n = insertM1(collection, history, last);
+            log.info("inserted documents {}", n);
+            return n;
         } catch (MongoTimeoutException e) {
             log.error(e);
         }
         return 0;
     }
 
-    // last bar in time series may be incomplete
-    private LocalDateTime removeExistingWithDifferentVol(MongoCollection<Document> collection, PriceHistory history) {
-        LocalDateTime dt = null;
-        while (dt == null) {
-            var lastDoc = collection.find(Filters.eq("symbol", history.getSymbol())).sort(Sorts.descending("timestamp")).first();
-            if (lastDoc == null) {
-                return null;
-            }
-            var timestamp = asLocalDateTime(lastDoc, "timestamp");
-            var bar = history.bar(timestamp);
-            if (bar.isPresent() && !DoubleMath.fuzzyEquals(lastDoc.getDouble("volume"), bar.get().volume(), 1e-6)) {
-                collection.deleteOne(Filters.and(Filters.eq("symbol", lastDoc.getString("symbol")), Filters.eq("timestamp", lastDoc.getDate("timestamp"))));
-                log.info("deleted document with timestamp {} from m1", timestamp);
-            } else {
-                dt = timestamp;
+    /**
+     * Remove the stored tail of bars whose volume differs from the history, e.g. a partially formed last bar.
+     * The tail is fetched newest first in batches and merged against the history then deleted with one deleteMany.
+     *
+     * @return timestamp of the newest stored bar which matches or is not in the history, null if none remain
+     */
+    private @Nullable LocalDateTime removeExistingWithDifferentVol(MongoCollection<Document> collection, PriceHistory history) {
+        String symbol = history.getSymbol();
+        long[] times = history.getTimes();
+        double[] volumes = history.getColumn("volume");
+        Date before = null;
+        Date oldestStale = null;
+        LocalDateTime last = null;
+        boolean more = true;
+        while (last == null && more) {
+            var filter = before == null
+                    ? Filters.eq("symbol", symbol)
+                    : Filters.and(Filters.eq("symbol", symbol), Filters.lt("timestamp", before));
+            var docs = collection.find(filter)
+                    .projection(Projections.include("timestamp", "volume"))
+                    .sort(Sorts.descending("timestamp"))
+                    .limit(TAIL_BATCH_SIZE)
+                    .into(new ArrayList<>(TAIL_BATCH_SIZE));
+            more = docs.size() == TAIL_BATCH_SIZE;
+            int i = -1;
+            for (var doc : docs) {
+                var timestamp = doc.getDate("timestamp");
+                long tm = PriceHistory.toEpochMinute(asLocalDateTime(timestamp));
+                // stored bars are usually consecutive so the next one is the previous bar in the history
+                i = i > 0 && times[i - 1] == tm ? i - 1 : history.find(tm);
+                if (i < 0 || DoubleMath.fuzzyEquals(doc.get("volume", Number.class).doubleValue(), volumes[i], 1e-6)) {
+                    last = asLocalDateTime(timestamp);
+                    break;
+                }
+                oldestStale = timestamp;
+                before = timestamp;
             }
         }
-        return dt;
+        if (oldestStale != null) {
+            var dr = collection.deleteMany(Filters.and(Filters.eq("symbol", symbol), Filters.gte("timestamp", oldestStale)));
+            log.info("deleted {} documents from {} with different volume from m1", dr.getDeletedCount(), asLocalDateTime(oldestStale));
+            refreshSymbolCatalog(symbol);
+        }
+        return last;
     }
 
 //    @Override
@@ -207,49 +323,174 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
 
     @Override
     public LocalDateTime rebuildMinVol(PriceHistory history) {
-        var idx = history.indexEntry(0);
-        LocalDateTime firstBar = history.dates[idx.start()];
+        return rebuildMinVol(getCollection(MIN_VOL_COLLECTION), history, 0);
+    }
+
+    @Override
+    public LocalDateTime appendMinVol(PriceHistory history) {
         var collection = getCollection(MIN_VOL_COLLECTION);
+        var lastStart = lastMinVolStart(collection, history.getSymbol());
+        if (lastStart != null) {
+            int i = history.find(lastStart);
+            if (i >= 0) {
+                return rebuildMinVol(collection, history, i);
+            }
+            if (lastStart.isBefore(history.date(0))) {
+                // the history starts after the last stored bar so continue from the stored session holding it
+                var m1 = loadSessionFrom(history.getSymbol(), lastStart, history.date(history.length() - 1));
+                int from = m1 == null ? -1 : m1.find(lastStart);
+                if (from >= 0) {
+                    return rebuildMinVol(collection, m1, from);
+                }
+            }
+        }
+        return rebuildMinVol(collection, history, 0);
+    }
+
+    /**
+     * replace the min vol bars from bar from of the history, which must be the start of a min vol bar
+     */
+    private LocalDateTime rebuildMinVol(MongoCollection<Document> collection, PriceHistory history, int from) {
         String symbol = history.getSymbol();
         log.info("from {}", history);
+        LocalDateTime firstBar = history.date(from);
         var idr = deleteMinVolAfter(collection, symbol, firstBar);
         log.info("deleted {} documents for symbol {} after start_tm {} from minvol ", idr.getDeletedCount(), symbol, firstBar);
-        var imr = insertMinVol(collection, history, 2500);
-        log.info("inserted {} documents into minvol", imr.getInsertedIds().size());
+        var bars = history.minVolBars(2500, from);
+        if (!bars.isEmpty()) {
+            var imr = insertMinVol(collection, symbol, bars);
+            log.info("inserted {} documents into minvol", imr.getInsertedIds().size());
+        }
         return firstBar;
     }
 
+    /**
+     * start of the last stored min vol bar, which is rebuilt when appending as it may have been built from an
+     * incomplete m1 bar, or null if there are none
+     */
+    private @Nullable LocalDateTime lastMinVolStart(MongoCollection<Document> minvol, String symbol) {
+        var last = minvol.find(Filters.eq("symbol", symbol))
+                .sort(Sorts.descending("start_tm"))
+                .projection(Projections.include("start_tm"))
+                .first();
+        return last == null ? null : asLocalDateTime(last, "start_tm");
+    }
+
+    /**
+     * stored m1 bars from the start of the session holding t to end, null if t is not in an indexed session
+     */
+    private @Nullable PriceHistory loadSessionFrom(String symbol, LocalDateTime t, LocalDateTime end) {
+        for (var e : tradeDates(symbol).entries()) {
+            if (!e.start().isAfter(t) && !e.end().isBefore(t)) {
+                return loadM1Between(symbol, List.of(e), e.start(), end);
+            }
+        }
+        return null;
+    }
+
     @Override
     public PriceHistory loadPriceHistory(String symbol, LocalDate startDate, LocalDate endDate, boolean rthOnly) {
-        var tradeDates = queryTradeDates(symbol, 0);
+        var tradeDates = tradeDates(symbol);
         if (tradeDates.isEmpty()) {
             throw new RuntimeException("No data found for symbol = '" + symbol + "'");
         }
 
-        var startEntry = tradeDates.stream()
-                .filter(td -> td.date().equals(startDate))
-                .findFirst()
-                .orElse(null);
-        if (startEntry == null) {
+        int start = tradeDates.indexOf(startDate);
+        if (start < 0) {
             return null;
         }
+        int end = tradeDates.indexOf(endDate);
+        if (end < 0) {
+            end = tradeDates.size() - 1;
+        }
 
-        var endEntry = tradeDates.stream()
-                .filter(td -> td.date().equals(endDate))
-                .findFirst()
-                .orElse(tradeDates.getLast());
-
-        var startTm = rthOnly ? startEntry.rthStart() : startEntry.start();
-        var endTm = rthOnly ? endEntry.rthEnd() : endEntry.end();
-        return makePriceHistory(queryM1RowsBetween(symbol, startTm, endTm));
+        return historyCache.get(symbol, tradeDates.entries().subList(start, end + 1), rthOnly, this::loadM1Between);
     }
 
     @Override
     public PriceHistory loadPriceHistory(String symbol, int index, int days) {
-        var tradeDates = queryTradeDates(symbol, 0);
+        var tradeDates = tradeDates(symbol);
         int start = index >= 0 ? index : tradeDates.size() + index;
         int end = Math.min(start + days - 1, tradeDates.size() - 1);
-        return makePriceHistory(queryM1RowsBetween(symbol, tradeDates.get(start).start(), tradeDates.get(end).end()));
+        return historyCache.get(symbol, tradeDates.entries().subList(start, end + 1), false, this::loadM1Between);
+    }
+
+    /**
+     * cached trade_date_index entries for the symbol, fetched on first use. An empty result is not cached
+     * so a symbol is picked up once its index is built.
+     */
+    TradeDates tradeDates(String symbol) {
+        var cached = tradeDatesCache.get(symbol);
+        if (cached != null) {
+            return cached;
+        }
+        var tradeDates = new TradeDates(queryTradeDates(symbol, 0));
+        if (!tradeDates.isEmpty()) {
+            tradeDatesCache.put(symbol, tradeDates);
+        }
+        return tradeDates;
+    }
+
+    /**
+     * trade_date_index entries of a symbol in date order with lookup by date in O(log n)
+     */
+    record TradeDates(List<TradeDateIndexEntry> entries) {
+
+        int size() {
+            return entries.size();
+        }
+
+        boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        /**
+         * @return position of the entry for date or -1 if the date is not a trade date
+         */
+        int indexOf(LocalDate date) {
+            int lo = 0;
+            int hi = entries.size() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = entries.get(mid).date().compareTo(date);
+                if (c < 0) {
+                    lo = mid + 1;
+                } else if (c > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * stream m1 bars between [start, end] inclusive straight into the columns of a new PriceHistory. The history
+     * is sized from the bar counts of the trade date index entries covering the range so it never expands
+     * while loading and has room for a day of streamed bars.
+     */
+    private PriceHistory loadM1Between(String symbol, List<TradeDateIndexEntry> entries, LocalDateTime start, LocalDateTime end) {
+        log.info("loadBetween {} [{}, {}]", symbol, start, end);
+        long bars = entries.stream().mapToLong(TradeDateIndexEntry::bars).sum();
+        var history = new PriceHistory(symbol, Math.toIntExact(bars) + PriceHistory.DAY_BARS, "date", "open", "high", "low", "close", "volume", "vwap", "ema");
+        var filter = Filters.and(
+                Filters.eq("symbol", symbol),
+                Filters.gte("timestamp", toMongoDate(start)),
+                Filters.lte("timestamp", toMongoDate(end)));
+        var m1 = getCollection(M1_COLLECTION, PriceHistory.class);
+        var registry = CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(new M1Codec(history)), m1.getCodecRegistry());
+        try (var cursor = m1.withCodecRegistry(registry).find(filter)
+                .projection(M1_LOAD_FIELDS)
+                .sort(Sorts.ascending("timestamp"))
+                .batchSize(READ_BATCH_SIZE)
+                .cursor()) {
+            while (cursor.hasNext()) {
+                cursor.next(); // the codec appends the bar to history
+            }
+        }
+        log.info("loaded {} bars expected {}", history.length(), bars);
+        return history;
     }
 
     /*
@@ -274,58 +515,188 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
         return db.get().getCollection(M1_COLLECTION, PriceBarM.class).find(filter).into(new ArrayList<>());
     }
 
-    PriceHistory makePriceHistory(List<PriceBarM> xs) {
-        var history = new PriceHistory(xs.getFirst().symbol(), xs.size(), "date", "open", "high", "low", "close", "volume", "vwap", "ema");
-        for (var x : xs) {
-            history.add(x.timestamp(), x.open(), x.high(), x.low(), x.close(), x.volume(), x.vwap(), x.ema());
+    private int insertM1(MongoCollection<Document> m1, PriceHistory history) {
+        return insertM1(m1, history, null);
+    }
+
+    /**
+     * insert bars after lastExisting in batches of WRITE_BATCH_SIZE
+     */
+    private int insertM1(MongoCollection<Document> m1, PriceHistory history, @Nullable LocalDateTime lastExisting) {
+        long[] times = history.getTimes();
+        long lastTm = lastExisting == null ? Long.MIN_VALUE : PriceHistory.toEpochMinute(lastExisting);
+        int start = lastExisting == null ? 0 : Math.max(0, history.find(lastTm));
+        var raw = m1.withDocumentClass(RawBsonDocument.class);
+        var rows = new M1Rows(history);
+        var batch = new BsonRows(Math.min(history.length() - start, WRITE_BATCH_SIZE));
+        int inserted = 0;
+        int first = history.length();
+        for (int i = start; i < history.length(); i++) {
+            if (times[i] > lastTm) {
+                first = Math.min(first, i);
+                rows.write(batch, i, true);
+                if (batch.size() == WRITE_BATCH_SIZE) {
+                    inserted += raw.insertMany(batch.drain()).getInsertedIds().size();
+                }
+            }
         }
-        return history;
+        if (!batch.isEmpty()) {
+            inserted += raw.insertMany(batch.drain()).getInsertedIds().size();
+        }
+        updateSymbolCatalog(history, first, inserted);
+        historyCache.invalidate(history.getSymbol());
+        return inserted;
     }
 
-    private Optional<InsertManyResult> insertM1(MongoCollection<Document> m1, PriceHistory history) {
-        return insertM1(m1, history, null);
+    /**
+     * upsert every bar keyed on (symbol, timestamp) using unordered bulk writes of WRITE_BATCH_SIZE.
+     * Repeating the write or writing overlapping histories leaves a single document per bar.
+     */
+    private int upsertM1(MongoCollection<Document> m1, PriceHistory history) {
+        var raw = m1.withDocumentClass(RawBsonDocument.class);
+        var rows = new M1Rows(history);
+        var options = new BulkWriteOptions().ordered(false);
+        var upsert = new UpdateOptions().upsert(true);
+        var symbol = new BsonString(history.getSymbol());
+        long[] times = history.getTimes();
+        var batch = new BsonRows(Math.min(history.length(), WRITE_BATCH_SIZE));
+        List<WriteModel<RawBsonDocument>> models = new ArrayList<>(Math.min(history.length(), WRITE_BATCH_SIZE));
+        int matched = 0;
+        int modified = 0;
+        int inserted = 0;
+        for (int i = 0; i < history.length(); i++) {
+            rows.write(batch, i, false);
+            if (batch.size() == WRITE_BATCH_SIZE || i == history.length() - 1) {
+                int first = i + 1 - batch.size();
+                var fields = batch.drain();
+                for (int j = 0; j < fields.size(); j++) {
+                    var filter = new BsonDocument("symbol", symbol)
+                            .append("timestamp", new BsonDateTime(times[first + j] * 60_000L));
+                    models.add(new UpdateOneModel<>(filter, new BsonDocument("$set", fields.get(j)), upsert));
+                }
+                var r = raw.bulkWrite(models, options);
+                matched += r.getMatchedCount();
+                modified += r.getModifiedCount();
+                inserted += r.getUpserts().size();
+                models.clear();
+            }
+        }
+        if (modified > 0) {
+            refreshSymbolCatalog(history.getSymbol());
+        } else {
+            updateSymbolCatalog(history, 0, inserted);
+        }
+        historyCache.invalidate(history.getSymbol());
+        log.info("upserted {} matched {} modified {} documents", inserted, matched, modified);
+        return inserted + modified;
     }
 
-    private Optional<InsertManyResult> insertM1(MongoCollection<Document> m1, PriceHistory history, @Nullable LocalDateTime lastExisting) {
-        LocalDateTime[] dates = history.dates;
-        double[] opens = history.getColumn("open");
-        double[] highs = history.getColumn("high");
-        double[] lows = history.getColumn("low");
-        double[] closes = history.getColumn("close");
-        double[] volumes = history.getColumn("volume");
-        double[] vwaps = history.getColumn("vwap");
-        double[] emas = history.getColumn("ema");
-        List<Document> rows = new ArrayList<>(dates.length);
-        int start = lastExisting == null ? 0 : Math.max(0, history.find(lastExisting));
-        int idx = 0;
-        for (int i = start; i < history.length(); i++) {
+    /**
+     * maps an m1 document to a row of a PriceHistory. decode reads each document straight from the driver's batch
+     * buffer into the next row and returns the same history, so a cursor over the collection creates no object
+     * per bar. encode writes the last row of a history in the same form as insertM1.
+     */
+    static final class M1Codec implements Codec<PriceHistory> {
+        private final PriceHistory history;
+
+        M1Codec(PriceHistory history) {
+            this.history = history;
+        }
 
-            if (lastExisting == null || dates[i].isAfter(lastExisting)) {
-                // advance session if needed
-                var current = history.indexEntry(idx);
-                while (i > current.end() && idx < history.indexSize() - 1) {
-                    idx++;
-                    current = history.indexEntry(idx);
+        @Override
+        public PriceHistory decode(BsonReader reader, DecoderContext decoderContext) {
+            long time = 0;
+            double open = 0, high = 0, low = 0, close = 0, volume = 0, vwap = 0, ema = 0;
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                switch (reader.readName()) {
+                    case "timestamp" -> time = Math.floorDiv(reader.readDateTime(), 60_000L);
+                    case "open" -> open = readNumber(reader);
+                    case "high" -> high = readNumber(reader);
+                    case "low" -> low = readNumber(reader);
+                    case "close" -> close = readNumber(reader);
+                    case "volume" -> volume = readNumber(reader);
+                    case "vwap" -> vwap = readNumber(reader);
+                    case "ema" -> ema = readNumber(reader);
+                    default -> reader.skipValue();
                 }
+            }
+            reader.readEndDocument();
+            return history.add(time, open, high, low, close, volume, vwap, ema);
+        }
+
+        private static double readNumber(BsonReader reader) {
+            return switch (reader.getCurrentBsonType()) {
+                case DOUBLE -> reader.readDouble();
+                case INT32 -> reader.readInt32();
+                case INT64 -> reader.readInt64();
+                default -> {
+                    reader.skipValue();
+                    yield Double.NaN;
+                }
+            };
+        }
+
+        @Override
+        public void encode(BsonWriter writer, PriceHistory value, EncoderContext encoderContext) {
+            writer.writeStartDocument();
+            new M1Rows(value).write(writer, value.length() - 1, true);
+            writer.writeEndDocument();
+        }
+
+        @Override
+        public Class<PriceHistory> getEncoderClass() {
+            return PriceHistory.class;
+        }
+    }
+
+    /**
+     * writes m1 rows from the history columns one bar at a time so large histories can be written
+     * in batches. Bars must be written in ascending order as the trade date session is tracked.
+     */
+    private static final class M1Rows {
+        private final PriceHistory history;
+        private final double[] opens;
+        private final double[] highs;
+        private final double[] lows;
+        private final double[] closes;
+        private final double[] volumes;
+        private final double[] vwaps;
+        private final double[] emas;
+        private int idx = 0;
+
+        M1Rows(PriceHistory history) {
+            this.history = history;
+            opens = history.getColumn("open");
+            highs = history.getColumn("high");
+            lows = history.getColumn("low");
+            closes = history.getColumn("close");
+            volumes = history.getColumn("volume");
+            vwaps = history.getColumn("vwap");
+            emas = history.getColumn("ema");
+        }
 
-                int barNumber = i - current.start();
-
-                var d = new Document("symbol", history.getSymbol())
-                        .append("timestamp", dates[i])
-                        .append("trade_date", current.tradeDate())
-                        .append("bar_number", barNumber)
-                        .append("open", opens[i])
-                        .append("high", highs[i])
-                        .append("low", lows[i])
-                        .append("close", closes[i])
-                        .append("volume", volumes[i])
-                        .append("ema", roundDouble(emas[i]))
-                        .append("vwap", roundDouble(vwaps[i]));
-
-                rows.add(d);
+        void write(BsonRows out, int i, boolean withKey) {
+            var current = advance(i);
+            out.m1(history.getSymbol(), history.getTimes()[i], current.tradeDate(), i - current.start(),
+                    opens[i], highs[i], lows[i], closes[i], volumes[i], emas[i], vwaps[i], withKey);
+        }
+
+        void write(BsonWriter out, int i, boolean withKey) {
+            var current = advance(i);
+            BsonRows.m1(out, history.getSymbol(), history.getTimes()[i], current.tradeDate(), i - current.start(),
+                    opens[i], highs[i], lows[i], closes[i], volumes[i], emas[i], vwaps[i], withKey);
+        }
+
+        // advance session if needed
+        private PriceHistory.IndexEntry advance(int i) {
+            var current = history.indexEntry(idx);
+            while (i > current.end() && idx < history.indexSize() - 1) {
+                idx++;
+                current = history.indexEntry(idx);
             }
+            return current;
         }
-        return rows.isEmpty() ? Optional.empty() : Optional.of(m1.insertMany(rows));
     }
 
 
@@ -337,8 +708,11 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
     }
 
     private InsertManyResult insertMinVol(MongoCollection<Document> minvol, String symbol, List<PriceHistory.Bar> bars) {
-        var rows = bars.stream().map(e -> makeMinVolDocument(symbol, e)).toList();
-        return minvol.insertMany(rows);
+        var rows = new BsonRows(bars.size());
+        for (var bar : bars) {
+            rows.minVol(symbol, bar);
+        }
+        return minvol.withDocumentClass(RawBsonDocument.class).insertMany(rows.drain());
     }
 
     /**
@@ -352,20 +726,6 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
         return minvol.deleteMany(filter);
     }
 
-    private Document makeMinVolDocument(String symbol, PriceHistory.Bar b) {
-        var d = new Document("symbol", symbol);
-        d.append("start_tm", b.start())
-                .append("end_tm", b.end())
-                .append("open", b.open())
-                .append("high", b.high())
-                .append("low", b.low())
-                .append("close", b.close())
-                .append("volume", b.volume())
-                .append("vwap", roundDouble(b.vwap()))
-                .append("ema", roundDouble(b.ema()));
-        return d;
-    }
-
 //    // inserts using record
 //    private InsertManyResult insertEx(MongoCollection<PriceBarM> m1, PriceHistory history) {
 //        LocalDateTime[] dates = history.dates;
@@ -393,10 +753,18 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
         }
      */
     protected List<SummaryMDB> queryM1SummaryImpl() {
+        return queryM1SummaryImpl(new Document());
+    }
+
+    /**
+     * summaries of the m1 bars matching filter grouped by symbol
+     */
+    private List<SummaryMDB> queryM1SummaryImpl(Bson filter) {
         var collection = getCollection(M1_COLLECTION, SummaryMDB.class);
         // sum(returned field name, expression - typically "$field_name"
         // must sort before feeding into aggregation since the first/last operators are order dependent
         return collection.aggregate(List.of(
+                Aggregates.match(filter),
                 Aggregates.sort(Sorts.ascending("symbol", "timestamp")),
                 Aggregates.group(
                         // id field ie groupBy
@@ -412,27 +780,160 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
     }
 
     /**
-     * return Summary documents about the m1 data
+     * return Summary documents about the m1 data from the symbols catalog, building the catalog if it is empty
      */
     @Override
     public List<Summary> queryM1Summary() {
-        return queryM1SummaryImpl().stream()
+        List<SummaryMDB> catalog = getCollection(SYMBOLS_COLLECTION, SummaryMDB.class)
+                .find()
+                .sort(Sorts.ascending("start"))
+                .into(new ArrayList<>());
+        if (catalog.isEmpty()) {
+            catalog = rebuildSymbolCatalog();
+        }
+        return catalog.stream()
                 .map(s -> new Summary(s.symbol(), s.count(), s.high(), s.low(), asLocalDateTime(s.start()), asLocalDateTime(s.end())))
                 .toList();
     }
 
+    /**
+     * replace the symbols catalog with a summary computed from the whole of m1
+     */
+    public List<SummaryMDB> rebuildSymbolCatalog() {
+        var summaries = queryM1SummaryImpl();
+        var catalog = getCollection(SYMBOLS_COLLECTION, SummaryMDB.class);
+        catalog.deleteMany(new Document());
+        if (!summaries.isEmpty()) {
+            catalog.insertMany(summaries);
+        }
+        log.info("rebuilt symbols catalog with {} symbols", summaries.size());
+        return summaries;
+    }
+
+    /**
+     * add bars [from, length) of the history to its symbols catalog entry, count is the number of those bars
+     * which were new to m1. The bars must already be written to m1. When there is no catalog, e.g. the first write
+     * to a database created before the catalog existed, it is built from m1 which then includes the new bars.
+     */
+    private void updateSymbolCatalog(PriceHistory history, int from, int count) {
+        if (from < history.length() && !buildSymbolCatalogIfMissing()) {
+            getCollection(SYMBOLS_COLLECTION).updateOne(
+                    Filters.eq("_id", history.getSymbol()),
+                    symbolCatalogUpdate(history, from, count),
+                    new UpdateOptions().upsert(true));
+        }
+    }
+
+    /**
+     * recompute the catalog entry of one symbol from m1 after bars were deleted or corrected, which the incremental
+     * $max and $min of updateSymbolCatalog cannot take back
+     */
+    private void refreshSymbolCatalog(String symbol) {
+        if (buildSymbolCatalogIfMissing()) {
+            return;
+        }
+        var catalog = getCollection(SYMBOLS_COLLECTION, SummaryMDB.class);
+        var summaries = queryM1SummaryImpl(Filters.eq("symbol", symbol));
+        if (summaries.isEmpty()) {
+            catalog.deleteOne(Filters.eq("_id", symbol));
+        } else {
+            catalog.replaceOne(Filters.eq("_id", symbol), summaries.getFirst(), new ReplaceOptions().upsert(true));
+        }
+        log.info("refreshed symbols catalog for {}", symbol);
+    }
+
+    /**
+     * @return true if the catalog was empty and has been rebuilt
+     */
+    private synchronized boolean buildSymbolCatalogIfMissing() {
+        if (getCollection(SYMBOLS_COLLECTION).estimatedDocumentCount() > 0) {
+            return false;
+        }
+        rebuildSymbolCatalog();
+        return true;
+    }
+
+    static Bson symbolCatalogUpdate(PriceHistory history, int from, int count) {
+        double[] highs = history.getColumn("high");
+        double[] lows = history.getColumn("low");
+        double high = Double.NEGATIVE_INFINITY;
+        double low = Double.POSITIVE_INFINITY;
+        for (int i = from; i < history.length(); i++) {
+            high = Math.max(high, highs[i]);
+            low = Math.min(low, lows[i]);
+        }
+        return Updates.combine(
+                Updates.inc("count", count),
+                Updates.max("high", high),
+                Updates.min("low", low),
+                Updates.min("start", toMongoDate(history.date(from))),
+                Updates.max("end", toMongoDate(history.date(history.length() - 1))));
+    }
+
     @Override
     public List<String> rebuildTradeDateIndex() {
         createDailyTimeSeriesCollection(TRADE_DATE_INDEX_COLLECTION, true);
-        var map = new HashMap<String, List<TradeDateIndexEntry>>();
         var symbols = queryM1Summary().stream().map(Summary::symbol).toList();   // get list of symbols in m1
-        for (var s : symbols) {
-            var entries = queryContiguousRegions(s, 30);
-            map.put(s, entries);
+        tradeDatesCache.clear();
+        historyCache.invalidateAll();
+        return forEachSymbol("rebuildTradeDateIndex", symbols, s -> {
+            insertTradeDateIndexRows(Map.of(s, queryContiguousRegions(s, TRADE_DATE_GAP_MINS)));
+            tradeDatesCache.remove(s);
+        });
+    }
+
+    @Override
+    public List<TradeDateIndexEntry> updateTradeDateIndex(PriceHistory history) {
+        if (history.length() == 0) {
+            return List.of();
+        }
+        String symbol = history.getSymbol();
+        var from = history.date(0);
+        var to = history.date(history.length() - 1);
+        // sessions in the index that the history overlaps or could join
+        var affected = queryTradeDates(Filters.and(
+                Filters.eq("symbol", symbol),
+                Filters.gte("end", toMongoDate(from.minusMinutes(TRADE_DATE_GAP_MINS))),
+                Filters.lte("start", toMongoDate(to.plusMinutes(TRADE_DATE_GAP_MINS)))));
+        var start = affected.isEmpty() || from.isBefore(affected.getFirst().start()) ? from : affected.getFirst().start();
+        var end = affected.isEmpty() || to.isAfter(affected.getLast().end()) ? to : affected.getLast().end();
+
+        // only go back to m1 when an affected session extends beyond the history
+        var entries = start.equals(from) && end.equals(to)
+                ? contiguousRegions(history, TRADE_DATE_GAP_MINS)
+                : queryContiguousRegions(symbol, TRADE_DATE_GAP_MINS, start, end);
+
+        var dates = new HashSet<Date>();
+        affected.forEach(e -> dates.add(toMongoDate(e.date())));
+        entries.forEach(e -> dates.add(toMongoDate(e.date())));
+        var result = getCollection(TRADE_DATE_INDEX_COLLECTION).deleteMany(Filters.and(Filters.eq("symbol", symbol), Filters.in("date", dates)));
+        log.info("updateTradeDateIndex {} [{}, {}] deleted {} rows", symbol, start, end, result.getDeletedCount());
+        insertTradeDateIndexRows(Map.of(symbol, entries));
+        tradeDatesCache.remove(symbol);
+        historyCache.invalidate(symbol);
+        return entries;
+    }
+
+    /**
+     * trade_date_index entries computed from the bars of the history. A new region starts after a gap of more
+     * than gapMins which matches CONTIGUOUS_BARS_PIPELINE.
+     */
+    static List<TradeDateIndexEntry> contiguousRegions(PriceHistory history, int gapMins) {
+        if (history.length() == 0) {
+            return List.of();
         }
-        log.info("loaded {} symbols", map.size());
-        insertTradeDateIndexRows(map);
-        return symbols;
+        var starts = history.firstBars(gapMins);
+        var ends = history.lastBars(starts);
+        var volumes = history.getColumn("volume");
+        var entries = new ArrayList<TradeDateIndexEntry>(starts.length);
+        for (int i = 0; i < starts.length; i++) {
+            double volume = 0;
+            for (int j = starts[i]; j <= ends[i]; j++) {
+                volume += volumes[j];
+            }
+            entries.add(new TradeDateIndexEntry(history.date(starts[i]), history.date(ends[i]), (long) volume, ends[i] - starts[i] + 1));
+        }
+        return entries;
     }
 
     @Override
@@ -440,8 +941,10 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
         log.info("buildTradeDateIndex symbol {}", symbol);
         var result = getCollection(TRADE_DATE_INDEX_COLLECTION).deleteMany(Filters.eq("symbol", symbol));
         log.info("deleted {} rows for symbol {} from trade_date_index", result.getDeletedCount(), symbol);
-        var entries = queryContiguousRegions(symbol, 30);
+        var entries = queryContiguousRegions(symbol, TRADE_DATE_GAP_MINS);
         insertTradeDateIndexRows(Map.of(symbol, entries));
+        tradeDatesCache.remove(symbol);
+        historyCache.invalidate(symbol);
         return List.of(symbol);
     }
 
@@ -488,11 +991,22 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
             """;
 
     public List<TradeDateIndexEntry> queryContiguousRegions(String symbol, int gapMins) {
+        return queryContiguousRegions(symbol, gapMins, null, null);
+    }
+
+    /**
+     * contiguous regions of m1 bars, restricted to bars in [start, end] when given
+     */
+    private List<TradeDateIndexEntry> queryContiguousRegions(String symbol, int gapMins, @Nullable LocalDateTime start, @Nullable LocalDateTime end) {
 
         String pipelineJson = CONTIGUOUS_BARS_PIPELINE.formatted(symbol.toLowerCase(), gapMins);
 
         @SuppressWarnings("unchecked")
         var pipeline = (List<Document>) Document.parse("{ \"pipeline\": " + pipelineJson + " }").get("pipeline");
+        if (start != null && end != null) {
+            pipeline.set(0, new Document("$match", new Document("symbol", symbol.toLowerCase())
+                    .append("timestamp", new Document("$gte", toMongoDate(start)).append("$lte", toMongoDate(end)))));
+        }
 
         var collection = getCollection(M1_COLLECTION, Document.class);
         var xs = collection
@@ -515,10 +1029,6 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
                 ? null
                 : Date.from(ld.atStartOfDay().toInstant(UTC));
     }
-        static double roundDouble(double value) {
-        return BigDecimal.valueOf(value).setScale(3, RoundingMode.HALF_UP).doubleValue();
-    }
-
     static Instant toInstant(LocalDateTime ldt) {
         return ldt.toInstant(UTC);
     }
@@ -559,8 +1069,11 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
     }
 
     public List<TradeDateIndexEntry> queryTradeDates(String symbol, long minVolume) {
+        return queryTradeDates(Filters.and(Filters.eq("symbol", symbol), Filters.gte("volume", minVolume)));
+    }
+
+    private List<TradeDateIndexEntry> queryTradeDates(Bson filter) {
         var collection = getCollection(TRADE_DATE_INDEX_COLLECTION, TradeDateMDB.class);
-        var filter = Filters.and(Filters.eq("symbol", symbol), Filters.gte("volume", minVolume));
         var results = collection.find(filter).sort(Sorts.ascending("date")).into(new ArrayList<>());
         return results.stream()
                 .map(e -> new TradeDateIndexEntry(
@@ -679,100 +1192,97 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
      * @return list of aggregated daily bars
      */
     public List<DailyBar> aggregateDailyBars(String symbol, boolean useRth) {
-        List<TradeDateIndexEntry> tradeDates = queryTradeDates(symbol, 100_000);
-        return aggregateDailyBars(symbol, useRth, tradeDates);
+        var bars = aggregateDailyBars(symbol, 100_000, null);
+        return useRth ? bars.rth() : bars.full();
     }
 
-    List<DailyBar> aggregateDailyBars(String symbol, boolean useRth, List<TradeDateIndexEntry> tradeDates) {
-        List<DailyBar> dailyBars = new ArrayList<>();
-
-        for (TradeDateIndexEntry td : tradeDates) {
-            LocalDateTime start = useRth ? td.rthStart() : td.start();
-            LocalDateTime end = useRth ? td.rthEnd() : td.end();
-
-            if (start == null || end == null ||
-                    start.equals(LocalDateTime.MIN) || end.equals(LocalDateTime.MIN)) {
-                log.warn("Skipping {} date={} - missing {} times",
-                        symbol, td.date(), useRth ? "RTH" : "session");
-                continue;
-            }
-
-            log.info("{} {} {} {}", symbol, td.date(), start, end);
-            var bar = aggregateSingleDay(symbol, td.date(), start, end);
-            if (bar != null) {
-                dailyBars.add(bar);
-            }
-        }
-
-        log.info("Aggregated {} daily bars for {} (rth={})", dailyBars.size(), symbol, useRth);
-        return dailyBars;
+    record DailyBars(List<DailyBar> full, List<DailyBar> rth) {
     }
 
     /**
-     * Aggregate m1 bars for a single trading day into one daily bar.
+     * Build full session and RTH daily bars for a symbol with a single aggregation. m1 bars are grouped by the
+     * trade_date written by insertM1 and the part of the session given by bar_number: 0 before RTH, 1 RTH, 2 after.
+     * The parts are merged in order to give the full session bar so there are at most 3 documents per trade date.
+     *
+     * @param minVolume  minimum full session volume of a trade date
+     * @param tradeDates restrict to these trade dates or null for all
      */
-    @Nullable
-    private DailyBar aggregateSingleDay(String symbol, LocalDate tradeDate,
-                                        LocalDateTime start, LocalDateTime end) {
-        Instant iStart = toInstant(start);
-        Instant iEnd = toInstant(end.plusMinutes(1)); // inclusive end
-
+    DailyBars aggregateDailyBars(String symbol, long minVolume, @Nullable Collection<LocalDate> tradeDates) {
+        var filter = Filters.eq("symbol", symbol.toLowerCase());
+        if (tradeDates != null) {
+            filter = Filters.and(filter, Filters.in("trade_date", tradeDates.stream().map(TimeSeriesRepositoryImpl::toMongoDate).toList()));
+        }
+        var part = new Document("$switch", new Document("branches", List.of(
+                new Document("case", new Document("$lt", List.of("$bar_number", RTH_START_OFFSET))).append("then", 0),
+                new Document("case", new Document("$lte", List.of("$bar_number", RTH_END_OFFSET))).append("then", 1)))
+                .append("default", 2));
         var pipeline = List.of(
-                Aggregates.match(Filters.and(
-                        Filters.eq("symbol", symbol.toLowerCase()),
-                        Filters.gte("timestamp", Date.from(iStart)),
-                        Filters.lt("timestamp", Date.from(iEnd))
-                )),
+                Aggregates.match(filter),
                 Aggregates.sort(Sorts.ascending("timestamp")),
                 Aggregates.group(
-                        null,
+                        new Document("date", "$trade_date").append("part", part),
                         Accumulators.first("open", "$open"),
                         Accumulators.max("high", "$high"),
                         Accumulators.min("low", "$low"),
                         Accumulators.last("close", "$close"),
                         Accumulators.sum("volume", "$volume"),
-                        Accumulators.last("vwap", "$vwap"),
-                        Accumulators.sum("count", 1)
-                )
+                        Accumulators.last("vwap", "$vwap")),
+                Aggregates.sort(Sorts.ascending("_id.date", "_id.part"))
         );
 
-        var result = getCollection(M1_COLLECTION).aggregate(pipeline).first();
-        if (result == null || result.getInteger("count", 0) == 0) {
-            log.warn("No m1 data for {} on {}", symbol, tradeDate);
-            return null;
+        List<DailyBar> full = new ArrayList<>();
+        List<DailyBar> rth = new ArrayList<>();
+        DailyBar day = null;
+        DailyBar rthDay = null;
+        try (var cursor = getCollection(M1_COLLECTION).aggregate(pipeline).allowDiskUse(true).cursor()) {
+            while (cursor.hasNext()) {
+                var d = cursor.next();
+                var id = d.get("_id", Document.class);
+                var date = asLocalDateTime(id.getDate("date")).toLocalDate();
+                var bar = new DailyBar(date, d.getDouble("open"), d.getDouble("high"), d.getDouble("low"), d.getDouble("close"),
+                        d.get("volume", Number.class).intValue(), d.getDouble("vwap"));
+                if (day != null && day.date().equals(date)) {
+                    day = new DailyBar(date, day.open(), Math.max(day.high(), bar.high()), Math.min(day.low(), bar.low()), bar.close(),
+                            day.volume() + bar.volume(), bar.vwap());
+                } else {
+                    addDailyBars(full, rth, day, rthDay, minVolume);
+                    day = bar;
+                    rthDay = null;
+                }
+                if (id.getInteger("part") == 1) {
+                    rthDay = bar;
+                }
+            }
+        }
+        addDailyBars(full, rth, day, rthDay, minVolume);
+        log.info("Aggregated {} daily and {} rth bars for {}", full.size(), rth.size(), symbol);
+        return new DailyBars(full, rth);
+    }
+
+    private static void addDailyBars(List<DailyBar> full, List<DailyBar> rth, @Nullable DailyBar day, @Nullable DailyBar rthDay, long minVolume) {
+        if (day != null && day.volume() >= minVolume) {
+            full.add(day);
+            if (rthDay != null) {
+                rth.add(rthDay);
+            }
         }
-        return new DailyBar(
-                tradeDate,
-                result.getDouble("open"),
-                result.getDouble("high"),
-                result.getDouble("low"),
-                result.getDouble("close"),
-                result.getDouble("volume").intValue(),
-                result.getDouble("vwap")
-        );
     }
 
     /**
      * Insert daily bars into the specified collection.
      */
-    InsertManyResult insertDailyBars(String symbol, boolean useRth, List<DailyBar> bars) {
+    int insertDailyBars(String symbol, boolean useRth, List<DailyBar> bars) {
+        if (bars.isEmpty()) {
+            return 0;
+        }
         var collection = getCollection(useRth ? DAILY_RTH_COLLECTION : DAILY_COLLECTION);
-        List<Document> docs = new ArrayList<>(bars.size());
-
+        var rows = new BsonRows(bars.size());
         for (DailyBar bar : bars) {
-            var doc = new Document()
-                    .append("symbol", symbol)
-                    .append("date", toMongoDate(bar.date()))
-                    .append("open", bar.open())
-                    .append("high", bar.high())
-                    .append("low", bar.low())
-                    .append("close", bar.close())
-                    .append("volume", bar.volume())
-                    .append("vwap", roundDouble(bar.vwap()));
-            docs.add(doc);
+            rows.daily(symbol, bar);
         }
 
-        return collection.insertMany(docs, new InsertManyOptions().ordered(false));
+        return collection.withDocumentClass(RawBsonDocument.class)
+                .insertMany(rows.drain(), new InsertManyOptions().ordered(false)).getInsertedIds().size();
     }
 
     /**
@@ -780,8 +1290,9 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
      */
     public void buildDailyTimeSeries(String symbol) {
         log.info("Building daily time series for {}", symbol);
-        insertDailyBars(symbol, false, aggregateDailyBars(symbol, false));
-        insertDailyBars(symbol, true, aggregateDailyBars(symbol, true));
+        var bars = aggregateDailyBars(symbol, 100_000, null);
+        insertDailyBars(symbol, false, bars.full());
+        insertDailyBars(symbol, true, bars.rth());
     }
 
 
@@ -789,35 +1300,41 @@ public class TimeSeriesRepositoryImpl implements TimeSeriesRepository {
         createDailyTimeSeriesCollection(DAILY_COLLECTION, true);
         createDailyTimeSeriesCollection(DAILY_RTH_COLLECTION, true);
 
-        var summaries = queryM1Summary();
-        for (var summary : summaries) {
-            buildDailyTimeSeries(summary.symbol());
-        }
-        log.info("Completed building daily time series for {} symbols", summaries.size());
+        var symbols = queryM1Summary().stream().map(Summary::symbol).toList();
+        forEachSymbol("buildAllDaily", symbols, this::buildDailyTimeSeries);
     }
 
     @Override
     public void selectiveRebuild(PriceHistory history) {
-        appendM1(history);
-        rebuildTradeDateIndex(history.getSymbol());
+        if (UPSERT_M1) {
+            upsertM1(history);
+        } else {
+            appendM1(history);
+        }
+        updateTradeDateIndex(history);
         rebuildMinVol(history);
         rebuildDaily(history);
     }
 
+    @Override
+    public void appendHistory(PriceHistory history) {
+        appendM1(history);
+        updateTradeDateIndex(history);
+        appendMinVol(history);
+        rebuildDaily(history);
+    }
+
     @Override
     public void rebuildDaily(PriceHistory history) {
         String symbol = history.getSymbol();
         var dates = history.index().entries().stream().map(PriceHistory.IndexEntry::tradeDate).toList();
+        var bars = aggregateDailyBars(symbol, 0, dates);
         for (var rthOnly: List.of(false, true)) {
             var idr = deleteDailyAfter(symbol, rthOnly, dates.getFirst());
             log.info("deleted {} documents for symbol {} from date {} from daily", idr.getDeletedCount(), symbol, dates.getFirst());
 
-            var datesToRebuild = queryTradeDates(symbol, 0).stream().filter(e -> dates.contains(e.date())).toList();
-            var bars = aggregateDailyBars(symbol, rthOnly, datesToRebuild);
-            if (!bars.isEmpty()) {
-                var imr = insertDailyBars(symbol, rthOnly, bars);
-                log.info("inserted {} documents into daily", imr.getInsertedIds().size());
-            }
+            int n = insertDailyBars(symbol, rthOnly, rthOnly ? bars.rth() : bars.full());
+            log.info("inserted {} documents into daily", n);
         }
     }
 
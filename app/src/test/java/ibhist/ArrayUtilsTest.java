@@ -1,7 +1,11 @@
 package ibhist;
 
+import org.assertj.core.data.Offset;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Random;
+
 import static ibhist.ArrayUtils.PointType.LOCAL_HIGH;
 import static ibhist.ArrayUtils.PointType.LOCAL_LOW;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -95,6 +99,30 @@ class ArrayUtilsTest {
         assertThat(zs).containsExactly(nvol);
     }
 
+    @Test
+    void rolling_standardize_matches_two_pass_over_reanchor() {
+        var rnd = new Random(7);
+        double[] vol = new double[3 * ArrayUtils.REANCHOR_INTERVAL + 17];
+        for (int i = 0; i < vol.length; i++) {
+            vol[i] = 1000 + rnd.nextInt(5000);
+        }
+        int n = 30;
+        var zs = ArrayUtils.rollingStandardize(vol, 0, 0, n);
+        for (int i = n - 1; i < vol.length; i++) {
+            double mean = 0;
+            for (int j = i - n + 1; j <= i; j++) {
+                mean += vol[j];
+            }
+            mean /= n;
+            double variance = 0;
+            for (int j = i - n + 1; j <= i; j++) {
+                variance += (vol[j] - mean) * (vol[j] - mean);
+            }
+            double expected = (vol[i] - mean) / Math.sqrt(variance / (n - 1)) * 100;
+            assertThat(zs[i]).isCloseTo(expected, Offset.offset(0.5 + 1e-6));
+        }
+    }
+
     @Test
     void count_prior_low() {
         double[] xs = {1, 3, 5, 4, 2, 3, 1, 6, 7, 1};
@@ -124,6 +152,38 @@ class ArrayUtilsTest {
         assertThat(xs).extracting(ArrayUtils.Swing::type).containsExactly(LOCAL_LOW, LOCAL_HIGH, LOCAL_LOW, LOCAL_HIGH, LOCAL_LOW, LOCAL_HIGH);
     }
 
+    @Test
+    void find_swings_flat_high_before_low() {
+        double[] xs = {5, 5, 5, 5};
+        var swings = ArrayUtils.findSwings(xs, xs, 0, 0, 1);
+        assertThat(swings).extracting(ArrayUtils.Swing::index).containsExactly(0, 0, 1, 1, 2, 2, 3, 3);
+        assertThat(swings).extracting(ArrayUtils.Swing::type).startsWith(LOCAL_HIGH, LOCAL_LOW);
+    }
+
+    @Test
+    void local_max_min_match_full_window_scan() {
+        var rnd = new Random(11);
+        double[] xs = new double[500];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = rnd.nextInt(20); // small range so there are many ties
+        }
+        int w = 4;
+        var maxs = new ArrayList<Integer>();
+        var mins = new ArrayList<Integer>();
+        for (int i = 99; i < 400; i++) {
+            boolean isMax = true;
+            boolean isMin = true;
+            for (int j = Math.max(0, i - w); j <= Math.min(xs.length - 1, i + w); j++) {
+                isMax &= xs[j] <= xs[i];
+                isMin &= xs[j] >= xs[i];
+            }
+            if (isMax) maxs.add(i);
+            if (isMin) mins.add(i);
+        }
+        assertThat(ArrayUtils.localMax(xs, 100, 400, w)).containsExactly(maxs.stream().mapToInt(Integer::intValue).toArray());
+        assertThat(ArrayUtils.localMin(xs, 100, 400, w)).containsExactly(mins.stream().mapToInt(Integer::intValue).toArray());
+    }
+
     double[] sine_wave() {
         double[] xs = new double[80];
         for (int i = 0; i < xs.length; i++) {
@@ -0,0 +1,103 @@
+package ibhist;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BsonRowsTest {
+
+    @Test
+    void m1_rows_decode_as_documents() {
+        var dt = LocalDateTime.of(2026, 1, 5, 23, 0);
+        var rows = new BsonRows(1);
+        rows.m1("esh6", PriceHistory.toEpochMinute(dt), LocalDate.of(2026, 1, 6), 3, 6900.25, 6901, 6899.5, 6900.75, 812, 6900.12345, 6900.5004, true);
+        rows.m1("esh6", PriceHistory.toEpochMinute(dt.plusMinutes(1)), LocalDate.of(2026, 1, 6), 4, 1, 2, 0.5, 1.5, 10, 1, 1, false);
+
+        var docs = rows.drain();
+
+        assertThat(docs).hasSize(2);
+        assertThat(rows.isEmpty()).isTrue();
+        var d = Document.parse(docs.get(0).toJson());
+        assertThat(d.getString("symbol")).isEqualTo("esh6");
+        assertThat(d.getDate("timestamp")).isEqualTo(Date.from(dt.toInstant(TimeSeriesRepositoryImpl.UTC)));
+        assertThat(d.getDate("trade_date")).isEqualTo(TimeSeriesRepositoryImpl.toMongoDate(LocalDate.of(2026, 1, 6)));
+        assertThat(d.getInteger("bar_number")).isEqualTo(3);
+        assertThat(d.getDouble("close")).isEqualTo(6900.75);
+        assertThat(d.getDouble("volume")).isEqualTo(812);
+        assertThat(d.getDouble("ema")).isEqualTo(6900.123);
+        assertThat(d.getDouble("vwap")).isEqualTo(6900.5);
+        assertThat(docs.get(1).keySet()).doesNotContain("symbol", "timestamp").contains("trade_date", "bar_number");
+    }
+
+    @Test
+    void m1_codec_appends_rows_to_history() {
+        var dt = LocalDateTime.of(2026, 1, 5, 23, 0);
+        var rows = new BsonRows(3);
+        for (int i = 0; i < 3; i++) {
+            rows.m1("esh6", PriceHistory.toEpochMinute(dt.plusMinutes(i)), LocalDate.of(2026, 1, 6), i, 100 + i, 101 + i, 99 + i, 100.5 + i, 10 * i, 100.25, 100.125, true);
+        }
+        var history = new PriceHistory("esh6", 4, "date", "open", "high", "low", "close", "volume", "vwap", "ema");
+        var codec = new TimeSeriesRepositoryImpl.M1Codec(history);
+
+        for (var doc : rows.drain()) {
+            assertThat(codec.decode(new BsonBinaryReader(doc.getByteBuffer().asNIO()), DecoderContext.builder().build())).isSameAs(history);
+        }
+
+        assertThat(history.length()).isEqualTo(3);
+        assertThat(history.date(2)).isEqualTo(dt.plusMinutes(2));
+        assertThat(history.getColumn("close")).startsWith(100.5, 101.5, 102.5);
+        assertThat(history.getColumn("volume")).startsWith(0, 10, 20);
+        assertThat(history.getColumn("vwap")[1]).isEqualTo(100.125);
+        assertThat(history.getColumn("ema")[1]).isEqualTo(100.25);
+    }
+
+    @Test
+    void m1_codec_encodes_last_row_as_m1_document() {
+        var history = TestSessions.sessions("esh6", 0, 2, TestSessions.M1_COLUMNS);
+        var codec = new TimeSeriesRepositoryImpl.M1Codec(history);
+        var doc = new BsonDocument();
+
+        codec.encode(new BsonDocumentWriter(doc), history, EncoderContext.builder().build());
+
+        int last = history.length() - 1;
+        var expected = new BsonRows(1);
+        expected.m1("esh6", history.getTimes()[last], history.indexEntry(1).tradeDate(), TestSessions.BARS - 1,
+                last, last + 1, last - 1, last, 100, last, last, true);
+        assertThat(doc).isEqualTo(expected.drain().getFirst());
+
+        var decoded = new PriceHistory("esh6", 1, TestSessions.M1_COLUMNS);
+        new TimeSeriesRepositoryImpl.M1Codec(decoded).decode(new BsonDocumentReader(doc), DecoderContext.builder().build());
+        assertThat(decoded.bar(0)).isEqualTo(history.bar(last));
+    }
+
+    @Test
+    void round_double_matches_big_decimal() {
+        var rnd = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            double x = switch (i % 3) {
+                case 0 -> rnd.nextInt(10_000_000) / 10_000d; // 4 decimal places, includes exact halves
+                case 1 -> rnd.nextDouble() * 10_000;
+                default -> -rnd.nextDouble() * 100;
+            };
+            assertThat(BsonRows.roundDouble(x)).as("%s", x)
+                    .isEqualTo(BigDecimal.valueOf(x).setScale(3, RoundingMode.HALF_UP).doubleValue());
+        }
+        assertThat(BsonRows.roundDouble(1.0005)).isEqualTo(1.001);
+        assertThat(BsonRows.roundDouble(-2.0005)).isEqualTo(-2.001);
+        assertThat(BsonRows.roundDouble(Double.NaN)).isNaN();
+    }
+}
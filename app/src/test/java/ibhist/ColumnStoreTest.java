@@ -0,0 +1,81 @@
+package ibhist;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ColumnStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void save_and_load_round_trip() {
+        var history = new PriceHistory("ESH6", 16, "date", "open", "high", "low", "close", "volume");
+        var dt = LocalDateTime.of(2026, 1, 5, 23, 0);
+        for (int i = 0; i < 10; i++) {
+            history.add(dt.plusMinutes(i), 100 + i, 101 + i, 99 + i, 100.25 + i, 1000 * i);
+        }
+        history.addStandardColumns();
+
+        var file = ColumnStore.save(history, ColumnStore.path(dir, history.getSymbol()));
+        var loaded = ColumnStore.load(file, 5);
+
+        assertThat(file.getFileName().toString()).isEqualTo("esh6.col");
+        assertThat(loaded.getSymbol()).isEqualTo("esh6");
+        assertThat(loaded.length()).isEqualTo(10);
+        assertThat(loaded.getTimes()).hasSize(15);
+        assertThat(loaded.date(9)).isEqualTo(dt.plusMinutes(9));
+        assertThat(loaded.columns()).extracting(c -> c.name)
+                .containsExactly("open", "high", "low", "close", "volume", "vwap", "ema", "strat");
+        for (var c : history.columns()) {
+            assertThat(Arrays.copyOf(loaded.getColumn(c.name), 10)).as(c.name).containsExactly(Arrays.copyOf(c.values, 10));
+        }
+        assertThat(loaded.bar(3)).isEqualTo(history.bar(3));
+    }
+
+    @Test
+    void load_rejects_other_files() throws Exception {
+        var file = Files.writeString(dir.resolve("esh6.col"), "Date,Open,High,Low,Close,Volume,WAP,BarCount");
+        assertThatThrownBy(() -> ColumnStore.load(file, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void load_rejects_truncated_file() throws Exception {
+        var history = new PriceHistory("ESH6", 16, "date", "open", "high", "low", "close", "volume");
+        for (int i = 0; i < 10; i++) {
+            history.add(LocalDateTime.of(2026, 1, 5, 23, i), 100, 101, 99, 100, 1000);
+        }
+        var file = ColumnStore.save(history, ColumnStore.path(dir, history.getSymbol()));
+        long size = Files.size(file);
+        for (long n : new long[]{size - 1, 40, 24}) {
+            try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(n);
+            }
+            assertThatThrownBy(() -> ColumnStore.load(file, 0)).as("%d", n).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void failed_save_removes_temp_file() throws Exception {
+        var history = new PriceHistory("ESH6", 1, "date", "open", "high", "low", "close", "volume");
+        // a non empty directory cannot be replaced by the move
+        var file = Files.createDirectories(ColumnStore.path(dir, history.getSymbol()));
+        Files.writeString(file.resolve("x"), "x");
+
+        assertThatThrownBy(() -> ColumnStore.save(history, file)).isInstanceOf(UncheckedIOException.class);
+        try (var files = Files.list(dir)) {
+            assertThat(files).containsExactly(file);
+        }
+    }
+}
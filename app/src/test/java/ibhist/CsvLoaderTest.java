@@ -0,0 +1,87 @@
+package ibhist;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CsvLoaderTest {
+    private static final LocalDateTime START = LocalDateTime.of(2025, 6, 17, 23, 0);
+
+    @TempDir
+    Path dir;
+
+    /**
+     * csv in the format written by barsAsCsv with bars from minute first to last inclusive
+     */
+    static String csv(int first, int last, double offset) {
+        var xs = new StringBuilder(",Date,Open,High,Low,Close,Volume,WAP,BarCount\r\n");
+        for (int i = first; i <= last; i++) {
+            var dt = START.plusMinutes(i);
+            double x = 6000 + i * 0.25 + offset;
+            xs.append("%d,%04d%02d%02d %02d:%02d:00 Europe/London,%.2f,%.2f,%.2f,%.2f,%d,%.3f,%d\r\n".formatted(
+                    i - first, dt.getYear(), dt.getMonthValue(), dt.getDayOfMonth(), dt.getHour(), dt.getMinute(),
+                    x, x + 0.5, x - 0.75, x + 0.25, 100 + i, x + 0.125, 10));
+        }
+        return xs.toString();
+    }
+
+    @Test
+    void parse_matches_text_values() {
+        var history = CsvLoader.parse("esu5", csv(0, 99, 0).getBytes(StandardCharsets.US_ASCII), "test");
+
+        assertThat(history.length()).isEqualTo(100);
+        assertThat(history.date(0)).isEqualTo(START);
+        assertThat(history.date(99)).isEqualTo(START.plusMinutes(99));
+        assertThat(history.getColumn("open")[7]).isEqualTo(Double.parseDouble("%.2f".formatted(6001.75)));
+        assertThat(history.getColumn("low")[99]).isEqualTo(6024.0);
+        assertThat(history.getColumn("close")[3]).isEqualTo(6001.0);
+        assertThat(history.getColumn("volume")[99]).isEqualTo(199);
+    }
+
+    @Test
+    void parse_without_header_or_row_number() {
+        var text = "20250618 14:30:00,6049.5,6050,6049.25,6050.25,1234,6049.8,21\n20250618 14:31:00,-1.5,2,3,4e2,5,6,7";
+        var history = CsvLoader.parse("esu5", text.getBytes(StandardCharsets.US_ASCII), "test");
+
+        assertThat(history.length()).isEqualTo(2);
+        assertThat(history.date(1)).isEqualTo(LocalDateTime.of(2025, 6, 18, 14, 31));
+        assertThat(history.getColumn("open")[1]).isEqualTo(-1.5);
+        assertThat(history.getColumn("close")[1]).isEqualTo(400);
+    }
+
+    @Test
+    void parse_reports_line_of_bad_row() {
+        var text = csv(0, 2, 0) + "3,20250618 xx:00:00,1,2,3,4,5,6,7\n";
+        assertThatThrownBy(() -> CsvLoader.parse("esu5", text.getBytes(StandardCharsets.US_ASCII), "bad.csv"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("bad.csv line 5");
+    }
+
+    @Test
+    void load_merges_overlapping_files_taking_later_file() throws Exception {
+        var a = Files.writeString(dir.resolve("zESU5 20250617.csv"), csv(0, 59, 0));
+        var b = Files.writeString(dir.resolve("zESU5 20250618.csv"), csv(40, 119, 1));
+        var c = Files.writeString(dir.resolve("zESU5 20250619.csv"), csv(200, 209, 0));
+
+        var history = CsvLoader.load("esu5", List.of(a, b, c));
+
+        assertThat(history.length()).isEqualTo(130);
+        long[] times = history.getTimes();
+        for (int i = 1; i < history.length(); i++) {
+            assertThat(times[i]).isGreaterThan(times[i - 1]);
+        }
+        var open = history.getColumn("open");
+        assertThat(open[39]).isEqualTo(6000 + 39 * 0.25);
+        assertThat(open[40]).isEqualTo(6000 + 40 * 0.25 + 1);
+        assertThat(history.date(129)).isEqualTo(START.plusMinutes(209));
+        assertThat(CsvLoader.load("esu5", List.of(c, b, a)).getColumn("open")[40]).isEqualTo(6000 + 40 * 0.25);
+    }
+}
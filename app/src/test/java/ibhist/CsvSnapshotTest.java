@@ -0,0 +1,123 @@
+package ibhist;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static ibhist.CsvLoaderTest.csv;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void snapshot_matches_parsed_files() throws Exception {
+        var files = List.of(
+                Files.writeString(dir.resolve("zESU5 20250617.csv"), csv(0, 59, 0)),
+                Files.writeString(dir.resolve("zESU5 20250618.csv"), csv(40, 119, 1)));
+        var snapshot = CsvSnapshot.path(dir, "ESU5");
+
+        var parsed = CsvSnapshot.load("esu5", files, snapshot);
+        var cached = CsvSnapshot.load("esu5", files, snapshot);
+
+        assertThat(snapshot.getFileName().toString()).isEqualTo("esu5.snap");
+        assertThat(Files.exists(snapshot)).isTrue();
+        assertThat(cached.length()).isEqualTo(120);
+        assertThat(cached.getSymbol()).isEqualTo("esu5");
+        assertThat(cached.getTimes()).startsWith(Arrays.copyOf(parsed.getTimes(), 120));
+        for (var c : parsed.columns()) {
+            assertThat(Arrays.copyOf(cached.getColumn(c.name), 120)).as(c.name)
+                    .containsExactly(Arrays.copyOf(c.values, 120));
+        }
+    }
+
+    @Test
+    void only_changed_files_are_parsed() throws Exception {
+        var a = Files.writeString(dir.resolve("zESU5 20250617.csv"), csv(0, 59, 0));
+        var b = Files.writeString(dir.resolve("zESU5 20250618.csv"), csv(40, 119, 1));
+        var snapshot = CsvSnapshot.path(dir, "esu5");
+        CsvSnapshot.load("esu5", List.of(a, b), snapshot);
+
+        // same size and modified time so the bars are taken from the snapshot
+        var modified = Files.getLastModifiedTime(a);
+        Files.writeString(a, csv(0, 59, 2));
+        Files.setLastModifiedTime(a, modified);
+        // changed file is parsed again
+        Files.writeString(b, csv(40, 119, 3));
+        Files.setLastModifiedTime(b, FileTime.fromMillis(Files.getLastModifiedTime(b).toMillis() + 1000));
+
+        var history = CsvSnapshot.load("esu5", List.of(a, b), snapshot);
+        var open = history.getColumn("open");
+        assertThat(open[0]).isEqualTo(6000);
+        assertThat(open[40]).isEqualTo(6000 + 40 * 0.25 + 3);
+
+        var c = Files.writeString(dir.resolve("zESU5 20250619.csv"), csv(200, 209, 0));
+        assertThat(CsvSnapshot.load("esu5", List.of(a, b, c), snapshot).length()).isEqualTo(130);
+        assertThat(CsvSnapshot.load("esu5", List.of(b), snapshot).length()).isEqualTo(80);
+    }
+
+    @Test
+    void unreadable_snapshot_is_replaced() throws Exception {
+        var a = Files.writeString(dir.resolve("zESU5 20250617.csv"), csv(0, 59, 0));
+        var snapshot = Files.writeString(CsvSnapshot.path(dir, "esu5"), "not a snapshot");
+
+        assertThat(CsvSnapshot.load("esu5", List.of(a), snapshot).length()).isEqualTo(60);
+        assertThat(Files.size(snapshot)).isGreaterThan(60 * 48);
+    }
+
+    @Test
+    void files_with_the_same_name_are_kept_apart() throws Exception {
+        var a = Files.writeString(Files.createDirectories(dir.resolve("a")).resolve("zESU5 20250617.csv"), csv(0, 59, 1));
+        var b = Files.writeString(Files.createDirectories(dir.resolve("b")).resolve("zESU5 20250617.csv"), csv(60, 119, 2));
+        // same size and modified time so only the path tells them apart
+        Files.setLastModifiedTime(b, Files.getLastModifiedTime(a));
+        assertThat(Files.size(b)).isEqualTo(Files.size(a));
+        var snapshot = CsvSnapshot.path(dir, "esu5");
+        CsvSnapshot.load("esu5", List.of(a, b), snapshot);
+
+        var history = CsvSnapshot.load("esu5", List.of(a, b), snapshot);
+        var open = history.getColumn("open");
+        assertThat(history.length()).isEqualTo(120);
+        assertThat(open[0]).isEqualTo(6001);
+        assertThat(open[60]).isEqualTo(6000 + 60 * 0.25 + 2);
+    }
+
+    @Test
+    void truncated_snapshot_is_replaced() throws Exception {
+        var a = Files.writeString(dir.resolve("zESU5 20250617.csv"), csv(0, 59, 0));
+        var snapshot = CsvSnapshot.path(dir, "esu5");
+        CsvSnapshot.load("esu5", List.of(a), snapshot);
+        long size = Files.size(snapshot);
+        try (var channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+            channel.truncate(size / 2);
+        }
+
+        var history = CsvSnapshot.load("esu5", List.of(a), snapshot);
+        assertThat(history.length()).isEqualTo(60);
+        assertThat(history.getColumn("open")[59]).isEqualTo(6000 + 59 * 0.25);
+        assertThat(Files.size(snapshot)).isEqualTo(size);
+    }
+
+    @Test
+    void saved_stats_are_taken_before_parsing() throws Exception {
+        var a = Files.writeString(dir.resolve("zESU5 20250617.csv"), csv(0, 59, 0));
+        var snapshot = CsvSnapshot.path(dir, "esu5");
+        var stats = List.of(CsvSnapshot.Stat.of(a));
+        var chunk = CsvLoader.parse("esu5", a);
+        // rewritten after it was parsed so the next load must parse it again
+        Files.writeString(a, csv(0, 59, 1));
+        Files.setLastModifiedTime(a, FileTime.fromMillis(stats.getFirst().modified() + 1000));
+        CsvSnapshot.save("esu5", List.of(a), stats, List.of(chunk), snapshot);
+
+        assertThat(CsvSnapshot.load("esu5", List.of(a), snapshot).getColumn("open")[0]).isEqualTo(6001);
+    }
+}
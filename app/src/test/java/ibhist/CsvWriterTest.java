@@ -0,0 +1,69 @@
+package ibhist;
+
+import com.ib.client.Bar;
+import com.ib.client.Decimal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private static String format(double value, int decimals) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var writer = new CsvWriter(Channels.newChannel(out))) {
+            writer.fixed(value, decimals);
+        }
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void fixed_matches_string_format() throws IOException {
+        var random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            double price = Math.round(random.nextDouble() * 40_000) / 4.0;
+            double wap = Math.round(random.nextDouble() * 10_000_000) / 1000.0 + random.nextInt(10) * 0.0005;
+            assertThat(format(price, 2)).isEqualTo(String.format(Locale.ROOT, "%.2f", price));
+            assertThat(format(wap, 3)).isEqualTo(String.format(Locale.ROOT, "%.3f", wap));
+            assertThat(format(-wap, 2)).isEqualTo(String.format(Locale.ROOT, "%.2f", -wap));
+        }
+        for (double x : new double[]{0, -0d, 1.005, 0.0005, 4983.0325, 0.125, 9.995, 1e20, Double.NaN}) {
+            assertThat(format(x, 2)).as("%s", x).isEqualTo(String.format(Locale.ROOT, "%.2f", x));
+            assertThat(format(x, 3)).as("%s", x).isEqualTo(String.format(Locale.ROOT, "%.3f", x));
+        }
+    }
+
+    @Test
+    void writes_compressed_file() throws IOException {
+        var file = dir.resolve("zESU5 20250618.csv.gz");
+        try (var writer = CsvWriter.open(file)) {
+            writer.header();
+            for (int i = 0; i < 5000; i++) {
+                writer.bar(i, new Bar("20250618  14:30:00 Europe/London", 6000, 6001.25, 5999.5, 6000.75,
+                        Decimal.get(100 + i), 12, Decimal.get(6000.4)));
+            }
+        }
+
+        String text;
+        try (var in = new GZIPInputStream(Files.newInputStream(file))) {
+            text = new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+        var lines = text.split(System.lineSeparator());
+        assertThat(lines).hasSize(5001);
+        assertThat(lines[0]).isEqualTo(CsvWriter.HEADER);
+        assertThat(lines[5000]).isEqualTo("4999,20250618 14:30:00,6000.00,6001.25,5999.50,6000.75,5099,6000.400,12");
+    }
+}
@@ -88,7 +88,7 @@ class HistoricalDataActionTest {
         var close = history.getColumn("close");
         var volume = history.getColumn("volume");
         for (int i = idx.start(); i < idx.rthStart(); ++i) {
-            var b = new Bar(toIBDateTime(history.getDates()[i]), open[i], high[i], low[i], close[i], Decimal.get(volume[i]), 0, Decimal.get(0));
+            var b = new Bar(toIBDateTime(history.date(i)), open[i], high[i], low[i], close[i], Decimal.get(volume[i]), 0, Decimal.get(0));
             action.onHistoricalData(b);
         }
         action.onHistoricalDataEnd();
@@ -121,7 +121,7 @@ class HistoricalDataActionTest {
         var close = history.getColumn("close");
         var volume = history.getColumn("volume");
         for (int i = idx.start(); i < idx.rthStart(); ++i) {
-            var b = new Bar(toIBDateTime(history.getDates()[i]), open[i], high[i], low[i], close[i], Decimal.get(volume[i]), 0, Decimal.get(0));
+            var b = new Bar(toIBDateTime(history.date(i)), open[i], high[i], low[i], close[i], Decimal.get(volume[i]), 0, Decimal.get(0));
             action.onHistoricalData(b);
         }
         action.onHistoricalDataEnd();
@@ -129,7 +129,7 @@ class HistoricalDataActionTest {
 
         // simulate realtime updates
         for (int i = idx.rthStart(); i < idx.rthStart() + 15; ++i) {
-            var dt = history.getDates()[i];
+            var dt = history.date(i);
             // send same bar 12 times to simulate 5s update freq
             var b = new Bar(toIBDateTime(dt), open[i], high[i], low[i], close[i], Decimal.get(volume[i]), 0, Decimal.get(0));
             for (int j = 12; j > 0; --j) {
@@ -0,0 +1,134 @@
+package ibhist;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+import static ibhist.TestSessions.BARS;
+import static ibhist.TestSessions.START;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalTimeSeriesRepositoryTest {
+    @TempDir
+    Path dir;
+
+    private static PriceHistory sessions(int first, int count) {
+        return TestSessions.sessions("esh6", first, count, TestSessions.M1_COLUMNS);
+    }
+
+    @Test
+    void append_and_upsert_write_only_new_bars() {
+        var repository = new LocalTimeSeriesRepository(dir);
+        repository.insertM1(sessions(0, 2));
+
+        assertThat(repository.appendM1(sessions(1, 2))).isEqualTo(BARS);
+        var changed = sessions(2, 1);
+        changed.getColumn("close")[10] = -1;
+        assertThat(repository.upsertM1(changed)).isEqualTo(1);
+        assertThat(repository.upsertM1(sessions(0, 1))).isZero();
+        // derived fields are compared too
+        var recomputed = sessions(0, 1);
+        recomputed.getColumn("ema")[5] += 0.25;
+        recomputed.getColumn("high")[6] += 0.25;
+        assertThat(repository.upsertM1(recomputed)).isEqualTo(2);
+
+        var m1 = repository.queryM1RowsBetween("ESH6", START, START.plusDays(3));
+        assertThat(m1).hasSize(3 * BARS);
+        assertThat(m1.get(2 * BARS + 10).close()).isEqualTo(-1);
+    }
+
+    @Test
+    void reopened_store_merges_segments() {
+        var repository = new LocalTimeSeriesRepository(dir);
+        repository.insertM1(sessions(1, 2));
+        repository.insertM1(sessions(0, 1));
+        var changed = sessions(2, 1);
+        changed.getColumn("close")[0] = -1;
+        repository.upsertM1(changed);
+
+        var reopened = new LocalTimeSeriesRepository(dir);
+        var history = reopened.loadPriceHistory("esh6", 0, 10);
+
+        assertThat(history.length()).isEqualTo(3 * BARS);
+        assertThat(history.date(0)).isEqualTo(START);
+        assertThat(history.getColumn("close")[BARS]).isEqualTo(BARS);
+        assertThat(history.getColumn("close")[2 * BARS]).isEqualTo(-1);
+        assertThat(reopened.queryM1Summary()).singleElement()
+                .satisfies(s -> assertThat(s.count()).isEqualTo(3 * BARS));
+    }
+
+    @Test
+    void compacts_to_one_segment() throws Exception {
+        var repository = new LocalTimeSeriesRepository(dir);
+        for (int d = 0; d <= LocalTimeSeriesRepository.MAX_SEGMENTS; d++) {
+            repository.insertM1(sessions(d, 1));
+        }
+
+        try (var files = Files.list(dir.resolve(TimeSeriesRepositoryImpl.M1_COLLECTION).resolve("esh6"))) {
+            assertThat(files).hasSize(1);
+        }
+        var reopened = new LocalTimeSeriesRepository(dir);
+        assertThat(reopened.loadPriceHistory("esh6", -1, 1).date(0))
+                .isEqualTo(START.plusDays(LocalTimeSeriesRepository.MAX_SEGMENTS));
+    }
+
+    @Test
+    void load_by_trade_date() {
+        var repository = new LocalTimeSeriesRepository(dir);
+        repository.insertM1(sessions(0, 4));
+
+        assertThat(repository.queryContiguousRegions("esh6", 30)).extracting(TimeSeriesRepository.TradeDateIndexEntry::date)
+                .containsExactly(LocalDate.of(2026, 1, 5), LocalDate.of(2026, 1, 6), LocalDate.of(2026, 1, 7), LocalDate.of(2026, 1, 8));
+        var history = repository.loadPriceHistory("esh6", LocalDate.of(2026, 1, 6), LocalDate.of(2026, 1, 7), false);
+        assertThat(history.length()).isEqualTo(2 * BARS);
+        assertThat(history.date(0)).isEqualTo(START.plusDays(1));
+
+        var rth = repository.loadPriceHistory("esh6", LocalDate.of(2026, 1, 6), LocalDate.of(2026, 1, 6), true);
+        assertThat(rth.date(0)).isEqualTo(LocalDate.of(2026, 1, 6).atTime(14, 30));
+        assertThat(rth.date(rth.length() - 1)).isEqualTo(LocalDate.of(2026, 1, 6).atTime(20, 59));
+    }
+
+    @Test
+    void appended_min_vol_matches_full_rebuild() {
+        var repository = new LocalTimeSeriesRepository(dir);
+        // the first save ends part way through a min vol bar of the second session
+        var saved = TestSessions.addSession(sessions(0, 1), 1, 710, i -> 100);
+        repository.appendHistory(saved);
+        repository.appendHistory(sessions(1, 2));
+
+        var full = sessions(0, 3);
+        assertThat(repository.loadMinVol("esh6")).isEqualTo(full.minVolBars(2500));
+        assertThat(repository.queryM1RowsBetween("esh6", START, START.plusDays(3))).hasSize(3 * BARS);
+    }
+
+    @Test
+    void appended_min_vol_continues_a_history_starting_after_the_last_bar() {
+        var repository = new LocalTimeSeriesRepository(dir);
+        repository.appendHistory(TestSessions.addSession(sessions(0, 1), 1, 710, i -> 100));
+        // streamed bars from the next minute, the last stored min vol bar started before them
+        var streamed = new PriceHistory("esh6", 2 * BARS, TestSessions.M1_COLUMNS);
+        PriceHistoryCache.copyRows(sessions(1, 2), 710, 2 * BARS, streamed);
+        repository.appendHistory(streamed);
+
+        assertThat(repository.loadMinVol("esh6")).isEqualTo(sessions(0, 3).minVolBars(2500));
+    }
+
+    @Test
+    void daily_bars_from_m1() {
+        var repository = new LocalTimeSeriesRepository(dir);
+        var history = sessions(0, 2);
+        repository.insertM1(history);
+        repository.rebuildDaily(history);
+
+        var daily = repository.queryDailyBars("esh6", false);
+        assertThat(daily).extracting(TimeSeriesRepository.DailyBar::date)
+                .containsExactly(LocalDate.of(2026, 1, 5), LocalDate.of(2026, 1, 6));
+        assertThat(daily.getFirst().open()).isEqualTo(0);
+        assertThat(daily.getFirst().close()).isEqualTo(BARS - 1);
+        assertThat(daily.getFirst().volume()).isEqualTo(100 * BARS);
+        assertThat(repository.queryDailyBars("esh6", true)).hasSize(2);
+    }
+}
@@ -0,0 +1,89 @@
+package ibhist;
+
+import ibhist.TimeSeriesRepository.TradeDateIndexEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ibhist.TestSessions.BARS;
+import static ibhist.TestSessions.START;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PriceHistoryCacheTest {
+    private final List<TradeDateIndexEntry> entries = new ArrayList<>();
+    private final List<List<LocalDate>> loads = new ArrayList<>();
+    private PriceHistory source;
+
+    @BeforeEach
+    void setUp() {
+        source = TestSessions.sessions("esh6", 0, 4, TestSessions.OHLCV);
+        for (int d = 0; d < 4; d++) {
+            entries.add(TestSessions.entry(d));
+        }
+    }
+
+    private PriceHistory load(String symbol, List<TradeDateIndexEntry> run, LocalDateTime start, LocalDateTime end) {
+        loads.add(run.stream().map(TradeDateIndexEntry::date).toList());
+        var history = new PriceHistory(symbol, 1, "date", "open", "high", "low", "close", "volume");
+        int from = source.find(start);
+        PriceHistoryCache.copyRows(source, from, source.find(end) + 1, history);
+        return history;
+    }
+
+    @Test
+    void overlapping_range_loads_only_missing_days() {
+        var cache = new PriceHistoryCache(1 << 30);
+
+        var first = cache.get("esh6", entries.subList(0, 2), false, this::load);
+        var second = cache.get("esh6", entries.subList(1, 4), false, this::load);
+
+        assertThat(loads).containsExactly(
+                List.of(LocalDate.of(2026, 1, 5), LocalDate.of(2026, 1, 6)),
+                List.of(LocalDate.of(2026, 1, 7), LocalDate.of(2026, 1, 8)));
+        assertThat(first.length()).isEqualTo(2 * BARS);
+        assertThat(second.length()).isEqualTo(3 * BARS);
+        assertThat(second.date(0)).isEqualTo(START.plusDays(1));
+        assertThat(second.getColumn("close")[0]).isEqualTo(BARS);
+        assertThat(second.getColumn("close")[3 * BARS - 1]).isEqualTo(4 * BARS - 1);
+    }
+
+    @Test
+    void rth_range_trims_first_and_last_day() {
+        var cache = new PriceHistoryCache(1 << 30);
+
+        var history = cache.get("esh6", entries.subList(0, 2), true, this::load);
+
+        assertThat(history.date(0)).isEqualTo(entries.getFirst().rthStart());
+        assertThat(history.date(history.length() - 1)).isEqualTo(entries.get(1).rthEnd());
+    }
+
+    @Test
+    void returned_history_is_a_copy() {
+        var cache = new PriceHistoryCache(1 << 30);
+
+        var history = cache.get("esh6", entries.subList(0, 1), false, this::load);
+        history.getColumn("close")[0] = -1;
+        history.append(START.plusDays(1), 1, 1, 1, 1, 1);
+
+        var again = cache.get("esh6", entries.subList(0, 1), false, this::load);
+        assertThat(loads).hasSize(1);
+        assertThat(again.getColumn("close")[0]).isEqualTo(0);
+        assertThat(again.length()).isEqualTo(BARS);
+    }
+
+    @Test
+    void evicts_by_column_bytes_and_invalidates_symbol() {
+        int dayBytes = BARS * Long.BYTES * 6;
+        var cache = new PriceHistoryCache(2L * dayBytes);
+
+        cache.get("esh6", entries, false, this::load);
+        assertThat(cache.bytes()).isLessThanOrEqualTo(2L * dayBytes);
+
+        cache.invalidate("esh6");
+        assertThat(cache.bytes()).isZero();
+    }
+}
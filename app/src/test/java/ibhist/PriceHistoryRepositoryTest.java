@@ -27,7 +27,7 @@ class PriceHistoryRepositoryTest {
         var cMax = history.rollingMax("high", 5, "highm5");
         assertThat(c.values.length).isEqualTo(history.length());
         var entry = history.indexEntry(-2);
-        LocalDateTime date = history.getDates()[entry.start()];
+        LocalDateTime date = history.date(entry.start());
         int pos = history.find(date);
         assertThat(pos).isEqualTo(entry.start());
         var b = history.bar(pos);
@@ -109,7 +109,7 @@ class PriceHistoryRepositoryTest {
         Point last = null;
         for (var p : highPoints) {
             if (last != null) {
-                log.info(String.format("%s %d %d %.2f", history.dates[p.index].toLocalTime(), p.index, p.index - last.index, p.value));
+                log.info(String.format("%s %d %d %.2f", history.date(p.index).toLocalTime(), p.index, p.index - last.index, p.value));
             }
             last = p;
         }
@@ -146,7 +146,7 @@ class PriceHistoryRepositoryTest {
             if (last != null) {
                 if (p.count > 19)
                     log.info("over %.2f".formatted(last.value));
-                log.info("%s %s".formatted(history.dates[p.index].toLocalTime(), p));
+                log.info("%s %s".formatted(history.date(p.index).toLocalTime(), p));
             }
             last = p;
         }
@@ -230,4 +230,4 @@ class PriceHistoryRepositoryTest {
             log.error(e);
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
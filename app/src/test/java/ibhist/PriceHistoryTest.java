@@ -5,8 +5,14 @@ import com.ib.client.Decimal;
 import org.assertj.core.data.Offset;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -42,6 +48,23 @@ class PriceHistoryTest {
         assertThat(h.length()).isEqualTo(4);
     }
 
+    @Test
+    void column_names_survive_serialization() throws Exception {
+        var h = new PriceHistory("ES", 2, "date", "open", "high", "low", "close", "volume");
+        h.add(LocalDateTime.of(2024, 3, 2, 14, 30), 8, 10, 7, 9, 100);
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ObjectOutputStream(bytes)) {
+            out.writeObject(h);
+        }
+
+        PriceHistory copy;
+        try (var in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (PriceHistory) in.readObject();
+        }
+        assertThat(copy.getColumn("close")).startsWith(9.0);
+        assertThat(copy.lookupColumn("vwap")).isNull();
+    }
+
     @Test
     void max_decreasing() {
         double[] xs = {7.0, 6.0, 5.0, 4.0, 3.0};
@@ -212,6 +235,133 @@ class PriceHistoryTest {
         assertThat(ys.values).containsExactly(0, -1, -2, 2, -1, -5);
     }
 
+    @Test
+    void rolling_standardize() {
+        double[] xs = {9, 6, 3, 3, 3, 6, 9, 12, 4, 8};
+        var ph = new PriceHistory("ES", xs.length, INPUT);
+        ph.setLength(xs.length);
+        ph.setColumnValues(INPUT, xs);
+
+        var ys = ph.rolling_standardize(INPUT, 3, OUTPUT);
+
+        assertThat(ys.values[0]).isEqualTo(0);
+        assertThat(ys.values[1]).isEqualTo(0);
+        assertThat(ys.values[4]).isEqualTo(0); // constant window
+        for (int i = 2; i < xs.length; i++) {
+            if (i != 4) {
+                var expected = PriceHistory.standardize(xs, i - 2, i + 1);
+                assertThat(ys.values[i]).isCloseTo(expected[2], Offset.offset(1e-9));
+            }
+        }
+    }
+
+    @Test
+    void recalc_after_update_matches_full_hilo() {
+        var history = test_price_history(128, 0.01);
+        history.hilo("high", "hc");
+        history.hilo("low", "lc");
+        var dt = history.date(127);
+        history.replace(-1, dt, 120, 200, 119, 139, 100);
+        history.add(dt.plusMinutes(1), 139, 139.5, 50, 51, 100);
+        history.recalc(-2);
+
+        var expected = history.hilo("high", "hc2").values;
+        assertThat(history.getColumn("hc")).startsWith(Arrays.copyOf(expected, history.length()));
+        expected = history.hilo("low", "lc2").values;
+        assertThat(history.getColumn("lc")).startsWith(Arrays.copyOf(expected, history.length()));
+        assertThat(history.getColumn("hc")[127]).isEqualTo(127);
+        assertThat(history.getColumn("lc")[128]).isEqualTo(-128);
+    }
+
+    @Test
+    void indicators_updated_on_append_and_replace() {
+        LocalDateTime dt = LocalDate.now().atTime(14, 30);
+        var live = new PriceHistory("ES", 4, "date", "open", "high", "low", "close", "volume");
+        live.add(dt, 100, 101, 99, 100, 100);
+        live.addStandardColumns();
+        live.rollingMax("high", 5, "rollhi");
+        live.rollingMin("low", 5, "rolllo");
+        live.hilo("high", "hc");
+        live.hilo("low", "lc");
+        double open = 100;
+        for (int i = 1; i < 200; i++) {
+            // gap at bar 120 resets vwap
+            var barTm = dt.plusMinutes(i < 120 ? i : i + 60);
+            double d = generatePrice(i, 0.01);
+            // stream a provisional bar then replace it with the final bar
+            live.append(barTm, open, d + 3, d - 3, d + 1, 50);
+            live.replaceLast(barTm, open, d + 1, d - 1, d, 100);
+            open = d;
+        }
+
+        var full = new PriceHistory("ES", live.length(), "date", "open", "high", "low", "close", "volume");
+        for (int i = 0; i < live.length(); i++) {
+            var b = live.bar(i);
+            full.add(b.start(), b.open(), b.high(), b.low(), b.close(), b.volume());
+        }
+        full.addStandardColumns();
+        full.rollingMax("high", 5, "rollhi");
+        full.rollingMin("low", 5, "rolllo");
+        full.hilo("high", "hc");
+        full.hilo("low", "lc");
+
+        for (var name : List.of("vwap", "ema", "strat", "rollhi", "rolllo", "hc", "lc")) {
+            assertThat(Arrays.copyOf(live.getColumn(name), live.length()))
+                    .as(name)
+                    .containsExactly(Arrays.copyOf(full.getColumn(name), full.length()), Offset.offset(1e-9));
+        }
+    }
+
+    @Test
+    void recomputed_columns_replace_existing() {
+        var history = test_price_history(128, 0.01);
+        history.addStandardColumns();
+        var vwap = history.column("vwap");
+        int count = history.columns().size();
+
+        history.addStandardColumns();
+        history.putColumn(history.ema("close", "ema", 20));
+
+        assertThat(history.columns()).hasSize(count);
+        assertThat(history.column("vwap")).isSameAs(vwap);
+        assertThat(history.getColumn("ema")).isEqualTo(history.ema("close", "ema", 20).values);
+
+        // the ema indicator added by addStandardColumns no longer maintains the replaced column
+        var ema = Arrays.copyOf(history.getColumn("ema"), 128);
+        history.append(history.date(127).plusMinutes(1), 100, 101, 99, 100, 100);
+        assertThat(history.getColumn("ema")).startsWith(ema);
+        assertThat(history.getColumn("ema")[128]).isZero();
+        assertThat(history.getColumn("vwap")[128]).isNotZero();
+    }
+
+    @Test
+    void column_handle_valid_after_expand() {
+        var history = new PriceHistory("ES", 2, "date", "open", "high", "low", "close", "volume");
+        var closes = history.column("close");
+        for (int i = 0; i < 5; i++) {
+            history.add(LocalDateTime.of(2024, 3, 2, 14, 30 + i), 8, 10, 7, 9 + i, 100);
+        }
+        assertThat(closes.values).startsWith(9, 10, 11, 12, 13);
+        assertThat(history.getColumn("close")).isSameAs(closes.values);
+    }
+
+    @Test
+    void find_across_session_gap() {
+        var history = new PriceHistory("ES", 8, "date", "open", "high", "low", "close", "volume");
+        var dt = LocalDateTime.of(2024, 3, 2, 14, 30);
+        for (int i = 0; i < 6; i++) {
+            // 60 minute gap after the third bar
+            history.add(dt.plusMinutes(i < 3 ? i : i + 60), 8, 10, 7, 9, 100);
+        }
+        assertThat(history.find(dt)).isEqualTo(0);
+        assertThat(history.find(dt.plusMinutes(2))).isEqualTo(2);
+        assertThat(history.find(dt.plusMinutes(63))).isEqualTo(3);
+        assertThat(history.find(dt.plusMinutes(65))).isEqualTo(5);
+        assertThat(history.find(dt.plusMinutes(30))).isEqualTo(-4);
+        assertThat(history.date(4)).isEqualTo(dt.plusMinutes(64));
+        assertThat(history.firstBars(1)).containsExactly(0, 3);
+    }
+
     @Test
     void test_rising_trend() {
         var history = test_price_history(128, 0.01);
@@ -239,7 +389,82 @@ class PriceHistoryTest {
         var history = PriceHistory.createFromIBBars("test", bars);
 
         assertThat(history.length()).isEqualTo(1);
-        assertThat(history.getDates()[0]).isEqualTo(LocalDateTime.of(2023, 9, 19, 23, 0, 0));
+        assertThat(history.date(0)).isEqualTo(LocalDateTime.of(2023, 9, 19, 23, 0, 0));
+    }
+
+    @Test
+    void parse_epoch_minute_from_ib_time() {
+        assertThat(PriceHistory.parseEpochMinute("20230919 23:00:00 Europe/London"))
+                .isEqualTo(PriceHistory.toEpochMinute(LocalDateTime.of(2023, 9, 19, 23, 0)));
+        assertThat(PriceHistory.parseEpochMinute("20240229  14:31:05"))
+                .isEqualTo(PriceHistory.toEpochMinute(LocalDateTime.of(2024, 2, 29, 14, 31)));
+        assertThat(PriceHistory.parseEpochMinute("19691231 23:59:00 US/Eastern")).isEqualTo(-1);
+        for (var d = LocalDate.of(1999, 12, 25); d.isBefore(LocalDate.of(2101, 3, 5)); d = d.plusDays(37)) {
+            var dt = d.atTime(9, 59);
+            assertThat(PriceHistory.parseEpochMinute(dt.format(DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss"))))
+                    .isEqualTo(PriceHistory.toEpochMinute(dt));
+        }
+    }
+
+    @Test
+    void ib_volume_matches_decimal_long_value() {
+        for (var v : new Decimal[]{Decimal.get(123.45d), Decimal.get(812), Decimal.get(-0.5d), Decimal.INVALID}) {
+            var bar = new Bar("20230919 23:00:00 Europe/London", 1, 1, 1, 1, v, 1, Decimal.get(1));
+            assertThat(PriceHistory.ibVolume(bar)).as("%s", v).isEqualTo(v.longValue());
+        }
+    }
+
+    @Test
+    void ib_bars_history_streams_without_expanding() {
+        List<Bar> bars = List.of(
+                new Bar("20230919 23:00:00 Europe/London", 21.25, 25.75, 19.00, 22.50, Decimal.get(123.45d), 13, Decimal.get(23.45d)));
+        var history = PriceHistory.createFromIBBars("test", bars);
+        history.addStandardColumns();
+        var closes = history.getColumn("close");
+        var dt = history.date(0);
+        for (int i = 1; i < 600; i++) {
+            history.append(dt.plusMinutes(i), 22, 23, 21, 22.25, 100);
+        }
+
+        assertThat(history.length()).isEqualTo(600);
+        assertThat(history.getColumn("close")).isSameAs(closes);
+        assertThat(closes[599]).isEqualTo(22.25);
+    }
+
+    @Test
+    void min_vol_bars_end_at_every_session_boundary() {
+        var history = sessions_after_partial_session();
+
+        var bars = history.minVolBars(2500);
+
+        for (var e : history.index().entries()) {
+            if (e.hasRth()) {
+                var rthStart = history.date(e.rthStart());
+                assertThat(bars).noneMatch(b -> b.start().isBefore(rthStart) && b.end().isAfter(rthStart));
+            }
+        }
+    }
+
+    @Test
+    void min_vol_bars_resume_from_start_of_bar() {
+        var history = sessions_after_partial_session();
+        var bars = history.minVolBars(2500);
+        int k = bars.size() - 20;
+
+        var resumed = history.minVolBars(2500, history.find(bars.get(k).start()));
+
+        assertThat(resumed).isEqualTo(bars.subList(k, bars.size()));
+    }
+
+    // a partial session without rth followed by two full sessions
+    private PriceHistory sessions_after_partial_session() {
+        var history = new PriceHistory("ES", 3000, TestSessions.OHLCV);
+        TestSessions.addSession(history, 0, 360, i -> 100 + i % 7);
+        for (int d = 1; d <= 2; d++) {
+            TestSessions.addSession(history, d, TestSessions.BARS, i -> 100 + i % 7);
+        }
+        history.vwap("vwap");
+        return history;
     }
 
     // n = 128 skew 0.01
@@ -271,4 +496,4 @@ class PriceHistoryTest {
 //        return new Bar()
 //    }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
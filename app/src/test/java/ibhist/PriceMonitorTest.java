@@ -0,0 +1,56 @@
+package ibhist;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ibhist.ChangeState.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PriceMonitorTest {
+
+    @Test
+    void fires_entry_inside_and_exit_after_threshold() {
+        List<PriceEvent> events = new ArrayList<>();
+        var monitor = new PriceMonitor(new MonitorManager.MonitorData("", price -> price > 120.0, 2),
+                (state, price) -> events.add(new PriceEvent(state, price)));
+
+        for (double price : new double[]{119, 121, 122, 123, 121, 118, 121}) {
+            monitor.test(price);
+        }
+
+        assertThat(events).extracting(PriceEvent::state, PriceEvent::price)
+                .containsExactly(tuple(entry, 122.0), tuple(inside, 123.0), tuple(inside, 121.0), tuple(exit, 118.0));
+    }
+
+    @Test
+    void ticks_inside_a_zone_do_not_allocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemoryEnabled());
+        int[] counts = new int[ChangeState.values().length];
+        var monitor = new PriceMonitor(new MonitorManager.MonitorData("", price -> price > 120.0, 3),
+                (state, price) -> counts[state.ordinal()]++);
+        int ticks = 200_000;
+        tick(monitor, ticks); // warm up
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        tick(monitor, ticks);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertThat(counts[inside.ordinal()]).isGreaterThan(ticks);
+        // a PriceEvent per tick would be at least 24 bytes a tick
+        assertThat(allocated).as("bytes allocated for %d ticks", ticks).isLessThan(ticks / 100);
+    }
+
+    // a price inside the zone that changes on every tick
+    private static void tick(PriceMonitor monitor, int n) {
+        for (int i = 0; i < n; i++) {
+            monitor.test(121 + (i & 7) * 0.25);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ibhist;
+
+import ibhist.TimeSeriesRepository.TradeDateIndexEntry;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Synthetic m1 sessions shared by the tests. Session d runs from 23:00 utc on 2026-01-04 + d days for BARS minutes
+ * to 21:59, so its trade date is the following day. Bar x, counted from the start of session 0, has open and close x,
+ * high x + 1, low x - 1 and vwap and ema x when the history has those columns.
+ */
+final class TestSessions {
+    static final LocalDateTime START = LocalDate.of(2026, 1, 4).atTime(23, 0);
+    static final int BARS = 1380;
+    static final String[] OHLCV = {"date", "open", "high", "low", "close", "volume"};
+    static final String[] M1_COLUMNS = {"date", "open", "high", "low", "close", "volume", "vwap", "ema"};
+
+    private TestSessions() {
+    }
+
+    static LocalDateTime start(int session) {
+        return START.plusDays(session);
+    }
+
+    static TradeDateIndexEntry entry(int session) {
+        return new TradeDateIndexEntry(start(session), start(session).plusMinutes(BARS - 1), 1000, BARS);
+    }
+
+    /**
+     * sessions [first, first + count) with a volume of 100 for every bar
+     */
+    static PriceHistory sessions(String symbol, int first, int count, String... columns) {
+        var history = new PriceHistory(symbol, count * BARS, columns);
+        for (int d = first; d < first + count; d++) {
+            addSession(history, d, BARS, i -> 100);
+        }
+        return history;
+    }
+
+    /**
+     * add the first n bars of session d, volume gives the volume of bar i of the session
+     */
+    static PriceHistory addSession(PriceHistory history, int d, int n, IntToDoubleFunction volume) {
+        var vwap = history.lookupColumn("vwap");
+        var ema = history.lookupColumn("ema");
+        var start = start(d);
+        for (int i = 0; i < n; i++) {
+            double x = d * BARS + i;
+            history.add(start.plusMinutes(i), x, x + 1, x - 1, x, volume.applyAsDouble(i));
+            if (vwap != null) {
+                vwap.values[history.length() - 1] = x;
+            }
+            if (ema != null) {
+                ema.values[history.length() - 1] = x;
+            }
+        }
+        return history;
+    }
+}
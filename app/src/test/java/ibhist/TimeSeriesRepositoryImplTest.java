@@ -1,5 +1,7 @@
 package ibhist;
 
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.AfterAll;
@@ -8,8 +10,14 @@ import org.junit.jupiter.api.Test;
 
 import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 class TimeSeriesRepositoryImplTest {
     private static final Logger log = LogManager.getLogger(TimeSeriesRepositoryImplTest.class.getSimpleName());
@@ -25,6 +33,151 @@ class TimeSeriesRepositoryImplTest {
         repository.close();
     }
 
+    @Test
+    void trade_dates_index_of_by_date() {
+        var entries = List.of(0, 1, 2, 3, 6).stream().map(TestSessions::entry).toList();
+        var tradeDates = new TimeSeriesRepositoryImpl.TradeDates(entries);
+
+        assertThat(tradeDates.indexOf(LocalDate.of(2026, 1, 5))).isEqualTo(0);
+        assertThat(tradeDates.indexOf(LocalDate.of(2026, 1, 8))).isEqualTo(3);
+        assertThat(tradeDates.indexOf(LocalDate.of(2026, 1, 11))).isEqualTo(4);
+        assertThat(tradeDates.indexOf(LocalDate.of(2026, 1, 9))).isEqualTo(-1);
+        assertThat(tradeDates.indexOf(LocalDate.of(2026, 1, 1))).isEqualTo(-1);
+    }
+
+    @Test
+    void contiguous_regions_from_history() {
+        var history = TestSessions.sessions("esh6", 0, 2, TestSessions.OHLCV);
+
+        var entries = TimeSeriesRepositoryImpl.contiguousRegions(history, TimeSeriesRepositoryImpl.TRADE_DATE_GAP_MINS);
+
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(1).date()).isEqualTo(LocalDate.of(2026, 1, 6));
+        assertThat(entries.get(1).start()).isEqualTo(TestSessions.start(1));
+        assertThat(entries.get(1).end()).isEqualTo(TestSessions.start(1).plusMinutes(TestSessions.BARS - 1));
+        assertThat(entries.get(1).volume()).isEqualTo(100 * TestSessions.BARS);
+        assertThat(entries.get(1).bars()).isEqualTo(TestSessions.BARS);
+        assertThat(entries.get(1).rthStart()).isEqualTo(TestSessions.start(1).plusMinutes(930));
+    }
+
+    @Test
+    void symbol_catalog_update_covers_new_bars() {
+        var dt = LocalDate.of(2026, 1, 5).atTime(23, 0);
+        var history = new PriceHistory("esh6", 8, "date", "open", "high", "low", "close", "volume");
+        for (int i = 0; i < 5; i++) {
+            history.add(dt.plusMinutes(i), 100, 101 + i, 99 - i, 100, 10);
+        }
+
+        var update = TimeSeriesRepositoryImpl.symbolCatalogUpdate(history, 2, 3).toBsonDocument();
+
+        assertThat(update.getDocument("$inc").getInt32("count").getValue()).isEqualTo(3);
+        assertThat(update.getDocument("$max").getDouble("high").getValue()).isEqualTo(105);
+        assertThat(update.getDocument("$min").getDouble("low").getValue()).isEqualTo(95);
+        assertThat(update.getDocument("$min").getDateTime("start").getValue())
+                .isEqualTo(dt.plusMinutes(2).toInstant(TimeSeriesRepositoryImpl.UTC).toEpochMilli());
+        assertThat(update.getDocument("$max").getDateTime("end").getValue())
+                .isEqualTo(dt.plusMinutes(4).toInstant(TimeSeriesRepositoryImpl.UTC).toEpochMilli());
+    }
+
+    @Test
+    void first_write_without_symbol_catalog_builds_it_from_m1() {
+        var repo = new TimeSeriesRepositoryImpl("futures_test");
+        try (var client = repo.createClient()) {
+            var db = client.getDatabase("futures_test");
+            db.drop();
+            repo.createM1TimeSeriesCollection(TimeSeriesRepositoryImpl.M1_COLLECTION, true);
+            repo.insertM1(m1History("esh6", 5));
+            // a database written before the catalog existed
+            db.getCollection(TimeSeriesRepositoryImpl.SYMBOLS_COLLECTION).drop();
+
+            repo.upsertM1(m1History("nqh6", 3));
+
+            assertThat(repo.queryM1Summary())
+                    .extracting(TimeSeriesRepository.Summary::symbol, TimeSeriesRepository.Summary::count)
+                    .containsExactlyInAnyOrder(tuple("esh6", 5), tuple("nqh6", 3));
+            db.drop();
+        } finally {
+            repo.close();
+        }
+    }
+
+    @Test
+    void symbol_catalog_is_recomputed_after_deleted_or_corrected_bars() {
+        var repo = new TimeSeriesRepositoryImpl("futures_test");
+        try (var client = repo.createClient()) {
+            var db = client.getDatabase("futures_test");
+            db.drop();
+            repo.createM1TimeSeriesCollection(TimeSeriesRepositoryImpl.M1_COLLECTION, true);
+            var history = m1History("esh6", 5);
+            history.getColumn("high")[4] = 110;
+            repo.insertM1(history);
+
+            // the last bar was partial, it is deleted and replaced with a lower high
+            var appended = m1History("esh6", 5);
+            appended.getColumn("volume")[4] = 20;
+            repo.appendM1(appended);
+            assertThat(repo.queryM1Summary()).singleElement()
+                    .satisfies(s -> assertThat(s.high()).isEqualTo(101))
+                    .satisfies(s -> assertThat(s.count()).isEqualTo(5));
+
+            var corrected = m1History("esh6", 3);
+            corrected.getColumn("low")[0] = 90;
+            repo.upsertM1(corrected);
+            assertThat(repo.queryM1Summary()).singleElement()
+                    .satisfies(s -> assertThat(s.low()).isEqualTo(90));
+            corrected.getColumn("low")[0] = 99;
+            repo.upsertM1(corrected);
+            assertThat(repo.queryM1Summary()).singleElement()
+                    .satisfies(s -> assertThat(s.low()).isEqualTo(99));
+            db.drop();
+        } finally {
+            repo.close();
+        }
+    }
+
+    @Test
+    void appended_min_vol_matches_full_rebuild() {
+        var repo = new TimeSeriesRepositoryImpl("futures_test");
+        try (var client = repo.createClient()) {
+            var db = client.getDatabase("futures_test");
+            db.drop();
+            repo.createM1TimeSeriesCollection(TimeSeriesRepositoryImpl.M1_COLLECTION, true);
+            repo.createMinVolTimeSeriesCollection(TimeSeriesRepositoryImpl.MIN_VOL_COLLECTION, true);
+            repo.createDailyTimeSeriesCollection(TimeSeriesRepositoryImpl.TRADE_DATE_INDEX_COLLECTION, true);
+            // the first save ends part way through a min vol bar, the second starts after the last stored bar
+            var full = TestSessions.sessions("esh6", 0, 3, TestSessions.M1_COLUMNS);
+            var saved = new PriceHistory("esh6", 2 * TestSessions.BARS, TestSessions.M1_COLUMNS);
+            PriceHistoryCache.copyRows(full, 0, TestSessions.BARS + 710, saved);
+            var streamed = new PriceHistory("esh6", 2 * TestSessions.BARS, TestSessions.M1_COLUMNS);
+            PriceHistoryCache.copyRows(full, TestSessions.BARS + 710, full.length(), streamed);
+
+            repo.appendHistory(saved);
+            repo.appendHistory(streamed);
+
+            var stored = db.getCollection(TimeSeriesRepositoryImpl.MIN_VOL_COLLECTION)
+                    .find(Filters.eq("symbol", "esh6"))
+                    .sort(Sorts.ascending("start_tm"))
+                    .map(d -> tuple(LocalDateTime.ofInstant(d.getDate("start_tm").toInstant(), TimeSeriesRepositoryImpl.UTC),
+                            d.getDouble("volume")))
+                    .into(new ArrayList<>());
+            assertThat(stored).containsExactlyElementsOf(full.minVolBars(2500).stream()
+                    .map(b -> tuple(b.start(), b.volume()))
+                    .toList());
+            db.drop();
+        } finally {
+            repo.close();
+        }
+    }
+
+    private static PriceHistory m1History(String symbol, int bars) {
+        var dt = LocalDate.of(2026, 1, 5).atTime(23, 0);
+        var history = new PriceHistory(symbol, bars, "date", "open", "high", "low", "close", "volume", "vwap", "ema");
+        for (int i = 0; i < bars; i++) {
+            history.add(dt.plusMinutes(i), 100, 101, 99, 100, 10, 100, 100);
+        }
+        return history;
+    }
+
     @Test
     void test_load_PriceHistory_for_range() {
         String symbol = "esh6";
@@ -36,6 +189,32 @@ class TimeSeriesRepositoryImplTest {
         log.info(history.indexEntry(0));
     }
 
+    @Test
+    void for_each_symbol_isolates_failures_and_limits_parallelism() {
+        var repo = new TimeSeriesRepositoryImpl();
+        repo.setParallelism(2);
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var seen = new ConcurrentLinkedQueue<String>();
+        var completed = repo.forEachSymbol("test", List.of("esh6", "bad", "esm6", "esu6", "esz6"), s -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                seen.add(s);
+                if (s.equals("bad")) {
+                    throw new IllegalStateException("bad contract");
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+        assertThat(completed).containsExactly("esh6", "esm6", "esu6", "esz6");
+        assertThat(seen).hasSize(5);
+        assertThat(maxRunning.get()).isEqualTo(2);
+    }
+
     @Test
     void test_buildIndex() {
         var symbols = repository.rebuildTradeDateIndex();
@@ -115,4 +294,4 @@ class TimeSeriesRepositoryImplTest {
         var hist = repo.load("ESH6", Paths.get(System.getProperty("user.home"), "Documents", "data", "zESH6 20260210.csv"));
         repository.rebuildDaily(hist);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file